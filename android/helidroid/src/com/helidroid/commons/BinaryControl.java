@@ -0,0 +1,82 @@
+package com.helidroid.commons;
+
+/**
+ * Compact binary encoding for control events. <br/>
+ * Instead of a json object, a controller may send the ADK command data itself as a base64 string, e.g. the sticks
+ * are sent as [throttle][pitch][roll][yaw], one signed byte each. Decoding goes straight into the command bytes
+ * without creating any intermediate objects.
+ *
+ * @author Amir Lazarovich
+ */
+public class BinaryControl {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    public static final int STICKS_LENGTH = 4;
+
+    private static final int[] DECODE_TABLE = new int[128];
+
+    static {
+        for (int i = 0; i < DECODE_TABLE.length; i++) {
+            DECODE_TABLE[i] = -1;
+        }
+
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = i;
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Decode base64 encoded sticks
+     *
+     * @param encoded
+     * @return The command data, or null if <code>encoded</code> isn't a valid sticks encoding
+     */
+    public static byte[] decodeSticks(String encoded) {
+        byte[] data = new byte[STICKS_LENGTH];
+        return (decode(encoded, data) == STICKS_LENGTH) ? data : null;
+    }
+
+    /**
+     * Decode a base64 string into <code>out</code>
+     *
+     * @param encoded
+     * @param out
+     * @return The number of bytes decoded, or -1 if <code>encoded</code> is malformed or doesn't fit in <code>out</code>
+     */
+    public static int decode(CharSequence encoded, byte[] out) {
+        int length = encoded.length();
+        while (length > 0 && encoded.charAt(length - 1) == '=') {
+            length--;
+        }
+
+        if (length % 4 == 1 || (length * 3) / 4 > out.length) {
+            return -1;
+        }
+
+        int count = 0;
+        int bits = 0;
+        int pending = 0;
+        for (int i = 0; i < length; i++) {
+            char c = encoded.charAt(i);
+            int value = (c < DECODE_TABLE.length) ? DECODE_TABLE[c] : -1;
+            if (value < 0) {
+                return -1;
+            }
+
+            bits = ((bits << 6) | value) & 0xFFFF;
+            pending += 6;
+            if (pending >= 8) {
+                pending -= 8;
+                out[count++] = (byte) (bits >> pending);
+            }
+        }
+
+        return count;
+    }
+}
@@ -1,5 +1,8 @@
 package com.helidroid.commons;
 
+import java.util.HashMap;
+import java.util.Locale;
+
 /**
 * @author Amir Lazarovich
 */
@@ -12,22 +15,37 @@ public enum Event {
     GET("get"),
     RESPONSE("response");
 
+    private static final HashMap<String, Event> sByValue = new HashMap<String, Event>();
+
+    static {
+        for (Event candidate : values()) {
+            sByValue.put(candidate.mValue, candidate);
+        }
+    }
+
     private String mValue;
 
     Event(String value) {
         mValue = value;
     }
 
+    /**
+     * Find the event matching <code>value</code>, case insensitive
+     *
+     * @param value
+     * @return {@link #UNKNOWN} if there's no match
+     */
     public static Event getByValue(String value) {
-        Event event = UNKNOWN;
-        for (Event candidate : values()) {
-            if (candidate.mValue.equalsIgnoreCase(value)) {
-                event = candidate;
-                break;
-            }
+        if (value == null) {
+            return UNKNOWN;
+        }
+
+        Event event = sByValue.get(value);
+        if (event == null) {
+            event = sByValue.get(value.toLowerCase(Locale.US));
         }
 
-        return event;
+        return (event == null) ? UNKNOWN : event;
     }
 
 
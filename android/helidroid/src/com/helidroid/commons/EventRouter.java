@@ -0,0 +1,121 @@
+package com.helidroid.commons;
+
+import io.socket.IOAcknowledge;
+
+/**
+ * Routes incoming socket events to their handlers. <br/>
+ * Handlers are kept in a table indexed by {@link Event} and {@link EventType}, so dispatching an event costs two
+ * hash lookups and an array access no matter how many handlers are registered.
+ *
+ * @author Amir Lazarovich
+ */
+public class EventRouter {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Handler[][] mRoutes;
+    private final Handler[] mFallbacks;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    public EventRouter() {
+        mRoutes = new Handler[Event.values().length][EventType.values().length];
+        mFallbacks = new Handler[Event.values().length];
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Register a handler for a specific event and event type
+     *
+     * @param event
+     * @param eventType
+     * @param handler
+     */
+    public void register(Event event, EventType eventType, Handler handler) {
+        mRoutes[event.ordinal()][eventType.ordinal()] = handler;
+    }
+
+    /**
+     * Register a handler for all event types of <code>event</code> that don't have a handler of their own
+     *
+     * @param event
+     * @param handler
+     */
+    public void register(Event event, Handler handler) {
+        mFallbacks[event.ordinal()] = handler;
+    }
+
+    /**
+     * Dispatch an event to its handler
+     *
+     * @param rawEvent
+     * @param rawEventType
+     * @param data         May be null
+     * @return false if there's no handler for this event
+     */
+    public boolean dispatch(String rawEvent, String rawEventType, Object data) {
+        return dispatch(rawEvent, rawEventType, data, null);
+    }
+
+    /**
+     * Dispatch an event to its handler, {@link RequestHandler}s also get the acknowledge the sender is waiting on
+     *
+     * @param rawEvent
+     * @param rawEventType
+     * @param data         May be null
+     * @param ack          May be null if the sender doesn't expect an answer
+     * @return false if there's no handler for this event
+     */
+    public boolean dispatch(String rawEvent, String rawEventType, Object data, IOAcknowledge ack) {
+        Event event = Event.getByValue(rawEvent);
+        EventType eventType = EventType.getByValue(rawEventType);
+        Handler handler = mRoutes[event.ordinal()][eventType.ordinal()];
+        if (handler == null) {
+            handler = mFallbacks[event.ordinal()];
+            if (handler == null) {
+                return false;
+            }
+        }
+
+        if (handler instanceof RequestHandler) {
+            ((RequestHandler) handler).handle(eventType, data, ack);
+        } else {
+            handler.handle(eventType, data);
+        }
+
+        return true;
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    public interface Handler {
+        /**
+         * Handle an event
+         *
+         * @param eventType
+         * @param data      The event's data, may be null
+         */
+        void handle(EventType eventType, Object data);
+    }
+
+    /**
+     * Handler for events the sender expects an answer to
+     */
+    public interface RequestHandler extends Handler {
+        /**
+         * Handle an event
+         *
+         * @param eventType
+         * @param data      The event's data, may be null
+         * @param ack       Completes the sender's request, may be null if the sender doesn't expect an answer
+         */
+        void handle(EventType eventType, Object data, IOAcknowledge ack);
+    }
+}
@@ -1,5 +1,8 @@
 package com.helidroid.commons;
 
+import java.util.HashMap;
+import java.util.Locale;
+
 /**
 * @author Amir Lazarovich
 */
@@ -16,8 +19,18 @@ public enum EventType {
     ACTION_TUNE("tune"),
     ACTION_TILT("tilt"),
     ACTION_CALIBRATE_TILT("calibrate_tilt"),
-    ACTION_TILT_OFFSET("tilt_offset");
+    ACTION_TILT_OFFSET("tilt_offset"),
+    ACTION_SUBSCRIBE_TILT("subscribe_tilt"),
+    ACTION_UNSUBSCRIBE_TILT("unsubscribe_tilt");
+
 
+    private static final HashMap<String, EventType> sByValue = new HashMap<String, EventType>();
+
+    static {
+        for (EventType candidate : values()) {
+            sByValue.put(candidate.mValue, candidate);
+        }
+    }
 
     private String mValue;
 
@@ -25,16 +38,23 @@ public enum EventType {
         mValue = value;
     }
 
+    /**
+     * Find the event type matching <code>value</code>, case insensitive
+     *
+     * @param value
+     * @return {@link #UNKNOWN} if there's no match
+     */
     public static EventType getByValue(String value) {
-        EventType event = UNKNOWN;
-        for (EventType candidate : values()) {
-            if (candidate.mValue.equalsIgnoreCase(value)) {
-                event = candidate;
-                break;
-            }
+        if (value == null) {
+            return UNKNOWN;
+        }
+
+        EventType event = sByValue.get(value);
+        if (event == null) {
+            event = sByValue.get(value.toLowerCase(Locale.US));
         }
 
-        return event;
+        return (event == null) ? UNKNOWN : event;
     }
 
 
@@ -0,0 +1,144 @@
+package com.helidroid.commons;
+
+/**
+ * Serializes telemetry replies from the ADK device straight into the json arguments of a socket event. <br/>
+ * A single {@link StringBuilder} is reused for every sample, so encoding a sample is a handful of appends instead of
+ * a tree of json objects. Not thread safe, use one encoder per thread.
+ *
+ * @author Amir Lazarovich
+ */
+public class TelemetryEncoder {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int INITIAL_CAPACITY = 256;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final StringBuilder mBuilder;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    public TelemetryEncoder() {
+        mBuilder = new StringBuilder(INITIAL_CAPACITY);
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Encode pitch, roll and yaw values, e.g. tilt or tilt offset
+     *
+     * @param eventType
+     * @param pitch
+     * @param roll
+     * @param yaw
+     * @return <code>[{"type":..,"data":{"pitch":..,"roll":..,"yaw":..}}]</code>
+     */
+    public String encodeAxes(EventType eventType, float pitch, float roll, float yaw) {
+        StringBuilder builder = begin(eventType);
+        appendAxes(builder, pitch, roll, yaw);
+        return end(builder);
+    }
+
+    /**
+     * Encode the PID parameters of all axes
+     *
+     * @param eventType
+     * @param pid       kp, ki and kd of pitch, followed by those of roll and yaw
+     * @param offset    Where the parameters start in <code>pid</code>
+     * @return <code>[{"type":..,"data":{"pitch":{"kp":..,"ki":..,"kd":..},"roll":{..},"yaw":{..}}}]</code>
+     */
+    public String encodePID(EventType eventType, float[] pid, int offset) {
+        StringBuilder builder = begin(eventType);
+        builder.append("{\"pitch\":");
+        appendPID(builder, pid[offset], pid[offset + 1], pid[offset + 2]);
+        builder.append(",\"roll\":");
+        appendPID(builder, pid[offset + 3], pid[offset + 4], pid[offset + 5]);
+        builder.append(",\"yaw\":");
+        appendPID(builder, pid[offset + 6], pid[offset + 7], pid[offset + 8]);
+        builder.append('}');
+        return end(builder);
+    }
+
+    /**
+     * Append the beginning of the event arguments, up to where the data goes
+     *
+     * @param builder
+     * @param eventType
+     */
+    public static void appendHeader(StringBuilder builder, EventType eventType) {
+        // event type values are plain identifiers, nothing to escape
+        builder.append("[{\"type\":\"").append(eventType.getValue()).append("\",\"data\":");
+    }
+
+    /**
+     * Append the end of the event arguments
+     *
+     * @param builder
+     */
+    public static void appendFooter(StringBuilder builder) {
+        builder.append("}]");
+    }
+
+    /**
+     * Append pitch, roll and yaw values as a json object
+     *
+     * @param builder
+     * @param pitch
+     * @param roll
+     * @param yaw
+     */
+    public static void appendAxes(StringBuilder builder, float pitch, float roll, float yaw) {
+        builder.append("{\"pitch\":");
+        appendFloat(builder, pitch);
+        builder.append(",\"roll\":");
+        appendFloat(builder, roll);
+        builder.append(",\"yaw\":");
+        appendFloat(builder, yaw);
+        builder.append('}');
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private StringBuilder begin(EventType eventType) {
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        appendHeader(builder, eventType);
+        return builder;
+    }
+
+    private static String end(StringBuilder builder) {
+        appendFooter(builder);
+        return builder.toString();
+    }
+
+    private static void appendPID(StringBuilder builder, float kp, float ki, float kd) {
+        builder.append("{\"kp\":");
+        appendFloat(builder, kp);
+        builder.append(",\"ki\":");
+        appendFloat(builder, ki);
+        builder.append(",\"kd\":");
+        appendFloat(builder, kd);
+        builder.append('}');
+    }
+
+    /**
+     * Json has no representation for NaN and infinity, those are sent as null
+     *
+     * @param builder
+     * @param value
+     */
+    private static void appendFloat(StringBuilder builder, float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            builder.append("null");
+        } else {
+            builder.append(value);
+        }
+    }
+}
@@ -9,25 +9,31 @@ import android.os.AsyncTask;
 import android.text.TextUtils;
 import com.helidroid.App;
 import com.helidroid.R;
+import com.helidroid.commons.BinaryControl;
 import com.helidroid.commons.Event;
+import com.helidroid.commons.EventRouter;
 import com.helidroid.commons.EventType;
+import com.helidroid.commons.TelemetryEncoder;
 import com.labs.adk.ADKManager;
 import com.labs.adk.Callback;
+import com.labs.adk.RequestTracker;
 import com.labs.adk.commons.utils.Utils;
 import com.labs.commons.ADK;
 import com.labs.commons.SLog;
 import io.socket.IOAcknowledge;
 import io.socket.IOCallback;
+import io.socket.IORawAcknowledge;
+import io.socket.LinkQuality;
 import io.socket.SocketIO;
 import io.socket.SocketIOException;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
-import java.util.Timer;
 import java.util.TimerTask;
 
 /**
@@ -38,7 +44,8 @@ public class SocketManager implements IOCallback, Callback {
     // Constants
     ///////////////////////////////////////////////
     private static final String TAG = "SocketManager";
-    private static final int PERIOD = 10000; // 10 seconds
+    private static final int DEFAULT_TILT_STREAM_RATE = 50; // samples per second
+    private static final long GET_TIMEOUT = 2000; // 2 seconds
 
     ///////////////////////////////////////////////
     // Members
@@ -46,8 +53,15 @@ public class SocketManager implements IOCallback, Callback {
     private ADKManager mADKManager;
     private Camera mCamera;
     private MediaPlayer mPlayer;
-    private Timer mTimer;
-    private SocketIO mSocket;
+    private volatile SocketIO mSocket; // also read on the ADK communication thread
+    private EventRouter mRouter;
+
+    // member-telemetry, only used on the ADK communication thread
+    private final TelemetryEncoder mEncoder = new TelemetryEncoder();
+    private final float[] mPID = new float[9];
+    private TelemetryBatcher mTiltBatcher;
+    private final TelemetryRateController mRateController = new TelemetryRateController();
+    private volatile int mTiltStreamRate; // 0 while not streaming
 
     // member-listeners
     private SocketListener mListener;
@@ -59,6 +73,17 @@ public class SocketManager implements IOCallback, Callback {
     public SocketManager(Context context, SocketListener listener) {
         mListener = listener;
         mADKManager = new ADKManager(context, this);
+        initRoutes();
+        mTiltBatcher = new TelemetryBatcher(EventType.ACTION_TILT,
+                context.getResources().getInteger(R.integer.telemetry_flush_interval),
+                new TelemetryBatcher.Emitter() {
+                    @Override
+                    public void emit(String jsonArgs) {
+                        emitTelemetry(jsonArgs);
+                        // adapt the rate of the samples to come to what the link can take
+                        mTiltBatcher.setDecimation(mRateController.update(getOutboundQueueDepth()));
+                    }
+                });
         initPlayer(context);
         initCamera();
 
@@ -111,6 +136,22 @@ public class SocketManager implements IOCallback, Callback {
         try {
             mSocket = new SocketIO(serverAddress);
             mSocket.connect(this);
+            // flight controls must never wait behind settings or get requests
+            mSocket.setControlEvents(Event.CONTROL.getValue());
+            // taking a picture is slow, don't let it hold up settings and get requests
+            mSocket.setEventLanes(Event.FUNCTION.getValue());
+            mSocket.setLinkListener(new LinkQuality.Listener() {
+                @Override
+                public void onLinkQuality(LinkQuality quality) {
+                    if (SLog.isLoggable(TAG, SLog.Type.DEBUG)) {
+                        SLog.d(TAG, "Link quality:: rtt: %d ms, jitter: %d ms, lost: %d", quality.getSmoothedRtt(),
+                                quality.getRttJitter(), quality.getLostCount());
+                    }
+
+                    mRateController.setRtt(quality.getSmoothedRtt());
+                    mListener.onLinkQuality(quality.getSmoothedRtt(), quality.getRttJitter());
+                }
+            });
         } catch (Exception e) {
             SLog.e(TAG, "Couldn't open socket", e);
             mListener.onSocketFailure();
@@ -139,11 +180,9 @@ public class SocketManager implements IOCallback, Callback {
             mADKManager.disconnect();
         }
 
-        if (mSocket != null) {
-            if (mTimer != null) {
-                mTimer.cancel();
-            }
+        mTiltBatcher.stop();
 
+        if (mSocket != null) {
             mSocket.disconnect();
         }
     }
@@ -171,10 +210,6 @@ public class SocketManager implements IOCallback, Callback {
         }
 
         if (mSocket != null) {
-            if (mTimer != null) {
-                mTimer.cancel();
-            }
-
             mSocket.disconnect();
         }
 
@@ -188,36 +223,27 @@ public class SocketManager implements IOCallback, Callback {
     @Override
     public void onDisconnect() {
         SLog.d(TAG, "Connection terminated");
+        mTiltBatcher.stop();
+        if (mTiltStreamRate > 0) {
+            // nobody's listening for now, keep the rate so the stream resumes in onConnect
+            stopTiltStream();
+        }
+
         mListener.onSocketDisconnected();
     }
 
     public void onConnect() {
         SLog.d(TAG, "Connection established");
 
-        if (mTimer != null) {
-            mTimer.cancel();
+        // the connection is kept alive in-band by heartbeats and pings, see LinkQuality
+        mRateController.reset();
+        mTiltBatcher.setDecimation(1);
+        mTiltBatcher.start();
+        int rate = mTiltStreamRate;
+        if (rate > 0) {
+            startTiltStream(rate);
         }
 
-        mTimer = new Timer();
-        mTimer.scheduleAtFixedRate(new TimerTask() {
-            public void run() {
-                SLog.d(TAG, "Trying to keepalive");
-                try {
-                    URL url = new URL(App.sConsts.SERVER_ADDRESS + "/keepalive");
-                    URLConnection urlConnection = url.openConnection();
-                    urlConnection.connect();
-//                    HttpClient client = new DefaultHttpClient();
-//                    HttpGet request = new HttpGet();
-//                    request.setURI(new URI(App.sConsts.SERVER_ADDRESS + "/keepalive"));
-//                    client.execute(request);
-                } catch (Exception e) {
-                    SLog.e(TAG, "Couldn't keepalive", e);
-                    mTimer.cancel();
-                    mListener.onSocketDisconnected();
-                }
-            }
-        }, 0, PERIOD);
-
         mListener.onSocketConnected();
     }
 
@@ -235,130 +261,40 @@ public class SocketManager implements IOCallback, Callback {
 
     @Override
     public void on(String rawEvent, IOAcknowledge ack, Object... args) {
-        SLog.d(TAG, "on:: event: %s, args[0]: %s", rawEvent, args[0]);
-
-        Event event = Event.getByValue(rawEvent);
-        EventType eventType = EventType.getByValue(args[0].toString());
-        switch (event) {
-            case CONTROL:
-                if (args.length >= 2) {
-                    onControlAction(eventType, (JSONObject) args[1]);
-                } else {
-                    SLog.w(TAG, "Missing values to process command Control");
-                }
-                break;
-
-            case SETTINGS:
-                if (args.length >= 2) {
-                    onSettingsAction(eventType, (JSONObject) args[1]);
-                } else {
-                    SLog.w(TAG, "Missing values to process command Settings");
-                }
-                break;
-
-            case GET:
-                onGetAction(eventType);
-                break;
-
-            case FUNCTION:
-                onFunctionAction(eventType, (args.length > 1) ? args[1] : null);
-                break;
-
-            case KEEP_ALIVE:
-                SLog.d(TAG, "Keeping alive");
-                break;
+        String rawEventType = (args.length > 0 && args[0] != null) ? args[0].toString() : null;
+        SLog.d(TAG, "on:: event: %s, type: %s", rawEvent, rawEventType);
 
-            default:
-                SLog.w(TAG, "Unknown event received: %s", rawEvent);
+        if (!mRouter.dispatch(rawEvent, rawEventType, (args.length > 1) ? args[1] : null, ack)) {
+            SLog.w(TAG, "Unknown event received: %s, type: %s", rawEvent, rawEventType);
         }
     }
 
     @Override
-    public void onDataReceived(int command, byte[] data, int dataLength) {
-        SLog.d(TAG, "onDataReceived:: command: %d, action: %d, dataLength: %d", command, data[1], dataLength);
+    public void onDataReceived(int command, byte[] data, int offset, int length) {
+        int action = data[offset + 1];
+        int dataLength = length - ADK.RESPONSE_HEADER_SIZE;
+        int dataOffset = offset + ADK.RESPONSE_HEADER_SIZE;
+        if (SLog.isLoggable(TAG, SLog.Type.DEBUG)) {
+            SLog.d(TAG, "onDataReceived:: command: %d, action: %d, dataLength: %d", command, action, dataLength);
+        }
 
-        int action = data[1];
-        switch (action) {
-            case ADK.ACTION_TUNE:
-                if (dataLength >= 38) {
-                    float pitchKp = Utils.bytesToFloat(data, 2);
-                    float pitchKi = Utils.bytesToFloat(data, 6);
-                    float pitchKd = Utils.bytesToFloat(data, 10);
-
-                    float rollKp = Utils.bytesToFloat(data, 14);
-                    float rollKi = Utils.bytesToFloat(data, 18);
-                    float rollKd = Utils.bytesToFloat(data, 22);
-
-                    float yawKp = Utils.bytesToFloat(data, 26);
-                    float yawKi = Utils.bytesToFloat(data, 30);
-                    float yawKd = Utils.bytesToFloat(data, 34);
-
-                    try {
-                        JSONObject response = new JSONObject();
-                        response.put("type", EventType.ACTION_TUNE.getValue());
-                        JSONObject dataWrapper = new JSONObject();
-                        dataWrapper.put("pitch", createJsonPID(pitchKp, pitchKi, pitchKd));
-                        dataWrapper.put("roll", createJsonPID(rollKp, rollKi, rollKd));
-                        dataWrapper.put("yaw", createJsonPID(yawKp, yawKi, yawKd));
-                        response.put("data", dataWrapper);
-                        SLog.d(TAG, "Send tuning parameters: %s", response.toString());
-                        mSocket.emit(Event.RESPONSE.getValue(), response);
-                    } catch (Exception e) {
-                        SLog.e(TAG, "Couldn't create json response", e);
-                    }
-                } else {
-                    SLog.w(TAG, "Missing values to process action Tune");
-                }
-                break;
+        if (action == ADK.ACTION_TILT || action == ADK.ACTION_TILT_STREAM) {
+            if (dataLength >= 12) {
+                float pitch = Utils.bytesToFloat(data, dataOffset);
+                float roll = Utils.bytesToFloat(data, dataOffset + 4);
+                float yaw = Utils.bytesToFloat(data, dataOffset + 8);
 
-            case ADK.ACTION_TILT:
-                if (dataLength >= 14) {
-                    float pitch = Utils.bytesToFloat(data, 2);
-                    float roll = Utils.bytesToFloat(data, 6);
-                    float yaw = Utils.bytesToFloat(data, 10);
-
-                    try {
-                        JSONObject response = new JSONObject();
-                        response.put("type", EventType.ACTION_TILT.getValue());
-                        JSONObject dataWrapper = new JSONObject();
-                        dataWrapper.put("pitch", pitch);
-                        dataWrapper.put("roll", roll);
-                        dataWrapper.put("yaw", yaw);
-                        response.put("data", dataWrapper);
-                        SLog.d(TAG, "Send Tilt parameters: %s", response.toString());
-                        mSocket.emit(Event.RESPONSE.getValue(), response);
-                    } catch (Exception e) {
-                        SLog.e(TAG, "Couldn't create json response", e);
-                    }
-                } else {
-                    SLog.w(TAG, "Missing values to process action Tilt");
-                }
+                mTiltBatcher.add(pitch, roll, yaw);
+            } else {
+                SLog.w(TAG, "Missing values to process action Tilt");
+            }
 
-                break;
+            return;
+        }
 
-            case ADK.ACTION_TILT_OFFSET:
-                if (dataLength >= 14) {
-                    float pitchOffset = Utils.bytesToFloat(data, 2);
-                    float rollOffset = Utils.bytesToFloat(data, 6);
-                    float yawOffset = Utils.bytesToFloat(data, 10);
-
-                    try {
-                        JSONObject response = new JSONObject();
-                        response.put("type", EventType.ACTION_TILT_OFFSET.getValue());
-                        JSONObject dataWrapper = new JSONObject();
-                        dataWrapper.put("pitch", pitchOffset);
-                        dataWrapper.put("roll", rollOffset);
-                        dataWrapper.put("yaw", yawOffset);
-                        response.put("data", dataWrapper);
-                        SLog.d(TAG, "Send Tilt-Offset parameters: %s", response.toString());
-                        mSocket.emit(Event.RESPONSE.getValue(), response);
-                    } catch (Exception e) {
-                        SLog.e(TAG, "Couldn't create json response", e);
-                    }
-                } else {
-                    SLog.w(TAG, "Missing values to process action Tilt-Offset");
-                }
-                break;
+        String jsonArgs = encodeResponse(data, offset, length);
+        if (jsonArgs != null) {
+            emitResponse(jsonArgs);
         }
     }
 
@@ -374,6 +310,13 @@ public class SocketManager implements IOCallback, Callback {
 
     @Override
     public void onConnected() {
+        SocketIO socket = mSocket;
+        int rate = mTiltStreamRate;
+        if (rate > 0 && socket != null && socket.isConnected()) {
+            // the accessory doesn't remember subscriptions across connections
+            startTiltStream(rate);
+        }
+
         mListener.onConnected();
     }
 
@@ -387,45 +330,55 @@ public class SocketManager implements IOCallback, Callback {
     ///////////////////////////////////////////////
 
     /**
-     * Handle actions directed to the motors
-     *
-     * @param eventType
-     * @param data
+     * Register a handler for every event and event type this manager knows how to handle
      */
-    private void onControlAction(EventType eventType, JSONObject data) {
-        switch (eventType) {
-            case ACTION_STICKS:
-                sendCommand(ADK.COMMAND_CONTROL,
-                        ADK.ACTION_STICKS,
-                        new byte[]{
-                                (byte) data.optInt("throttle"),
-                                (byte) data.optInt("pitch"),
-                                (byte) data.optInt("roll"),
-                                (byte) data.optInt("yaw")
-                        });
-                break;
+    private void initRoutes() {
+        mRouter = new EventRouter();
+
+        // actions directed to the motors
+        mRouter.register(Event.CONTROL, EventType.ACTION_STICKS, new EventRouter.Handler() {
+            @Override
+            public void handle(EventType eventType, Object data) {
+                byte[] sticks;
+                if (data instanceof String) {
+                    // compact binary encoding
+                    sticks = BinaryControl.decodeSticks((String) data);
+                    if (sticks == null) {
+                        SLog.w(TAG, "Malformed binary sticks: %s", data);
+                        return;
+                    }
+                } else if (data instanceof JSONObject) {
+                    JSONObject json = (JSONObject) data;
+                    sticks = new byte[]{
+                            (byte) json.optInt("throttle"),
+                            (byte) json.optInt("pitch"),
+                            (byte) json.optInt("roll"),
+                            (byte) json.optInt("yaw")
+                    };
+                } else {
+                    SLog.w(TAG, "Missing values to process command Control");
+                    return;
+                }
 
-            case ACTION_STANDBY:
+                sendCommand(ADK.COMMAND_CONTROL, ADK.ACTION_STICKS, sticks);
+            }
+        });
+
+        mRouter.register(Event.CONTROL, EventType.ACTION_STANDBY, new JsonHandler() {
+            @Override
+            void handle(JSONObject data) {
                 sendCommand(ADK.COMMAND_CONTROL,
                         ADK.ACTION_STANDBY,
                         new byte[]{
                                 data.optBoolean("on", false) ? (byte) 1 : (byte) 0
                         });
-                break;
-            default:
-                SLog.w(TAG, "Unknown event type detected: %s", eventType);
-        }
-    }
+            }
+        });
 
-    /**
-     * Handle actions directed to settings
-     *
-     * @param eventType
-     * @param data
-     */
-    private void onSettingsAction(EventType eventType, JSONObject data) {
-        switch (eventType) {
-            case ACTION_TUNE:
+        // actions directed to settings
+        mRouter.register(Event.SETTINGS, EventType.ACTION_TUNE, new JsonHandler() {
+            @Override
+            void handle(JSONObject data) {
                 float Kp = (float) data.optDouble("kp");
                 float Ki = (float) data.optDouble("ki");
                 float Kd = (float) data.optDouble("kd");
@@ -453,60 +406,75 @@ public class SocketManager implements IOCallback, Callback {
                                 bKd[2],
                                 bKd[3]
                         });
-                break;
+            }
+        });
 
-            case ACTION_CALIBRATE_TILT:
+        mRouter.register(Event.SETTINGS, EventType.ACTION_CALIBRATE_TILT, new EventRouter.Handler() {
+            @Override
+            public void handle(EventType eventType, Object data) {
                 sendCommand(ADK.COMMAND_SETTINGS,
                         ADK.ACTION_CALIBRATE_TILT,
                         null);
-                break;
-        }
-    }
+            }
+        });
 
-    /**
-     * Handle actions directed to get information from the adk device
-     *
-     * @param eventType
-     */
-    private void onGetAction(EventType eventType) {
-        switch (eventType) {
-            case ACTION_TUNE:
-                sendCommand(ADK.COMMAND_GET,
-                        ADK.ACTION_TUNE,
-                        null);
-                break;
+        // actions directed to get information from the adk device
+        mRouter.register(Event.GET, EventType.ACTION_TUNE, new RequestHandler() {
+            @Override
+            public void handle(EventType eventType, Object data, IOAcknowledge ack) {
+                sendRequest(eventType, ADK.ACTION_TUNE, ack);
+            }
+        });
 
-            case ACTION_TILT:
-                sendCommand(ADK.COMMAND_GET,
-                        ADK.ACTION_TILT,
-                        null);
-                break;
-        }
-    }
+        mRouter.register(Event.GET, EventType.ACTION_TILT, new RequestHandler() {
+            @Override
+            public void handle(EventType eventType, Object data, IOAcknowledge ack) {
+                sendRequest(eventType, ADK.ACTION_TILT, ack);
+            }
+        });
+
+        mRouter.register(Event.GET, EventType.ACTION_SUBSCRIBE_TILT, new EventRouter.Handler() {
+            @Override
+            public void handle(EventType eventType, Object data) {
+                int rate = (data instanceof JSONObject) ?
+                        ((JSONObject) data).optInt("rate", DEFAULT_TILT_STREAM_RATE) :
+                        DEFAULT_TILT_STREAM_RATE;
+                subscribeTilt(Math.max(1, Math.min(rate, 255)));
+            }
+        });
 
-    /**
-     * Handle miscellaneous functions
-     *
-     * @param eventType
-     * @param data
-     */
-    private void onFunctionAction(EventType eventType, Object data) {
-        switch (eventType) {
-            case TAKE_PICTURE:
+        mRouter.register(Event.GET, EventType.ACTION_UNSUBSCRIBE_TILT, new EventRouter.Handler() {
+            @Override
+            public void handle(EventType eventType, Object data) {
+                unsubscribeTilt();
+            }
+        });
+
+        // miscellaneous functions
+        mRouter.register(Event.FUNCTION, EventType.TAKE_PICTURE, new EventRouter.Handler() {
+            @Override
+            public void handle(EventType eventType, Object data) {
                 mCamera.takePicture(shutterCallback, rawCallback, null, jpegCallback);
-                break;
+            }
+        });
 
-            case TOGGLE_MUSIC:
+        mRouter.register(Event.FUNCTION, EventType.TOGGLE_MUSIC, new EventRouter.Handler() {
+            @Override
+            public void handle(EventType eventType, Object data) {
                 if (mPlayer.isPlaying()) {
                     mPlayer.stop();
                 } else {
                     mPlayer.start();
                 }
-                break;
+            }
+        });
 
-            default:
-                SLog.w(TAG, "Unknown event type detected: %s", eventType);
-        }
+        mRouter.register(Event.KEEP_ALIVE, new EventRouter.Handler() {
+            @Override
+            public void handle(EventType eventType, Object data) {
+                SLog.d(TAG, "Keeping alive");
+            }
+        });
     }
 
     /**
@@ -521,17 +489,160 @@ public class SocketManager implements IOCallback, Callback {
         mListener.onSentCommand(command, action, data);
     }
 
-    private JSONObject createJsonPID(float kp, float ki, float kd) {
-        JSONObject pid = new JSONObject();
+    /**
+     * Send a get request to the ADK. The reply completes <code>ack</code>, or is broadcast as a response event if
+     * the sender didn't ask for an acknowledge
+     *
+     * @param eventType
+     * @param action
+     * @param ack       May be null
+     */
+    private void sendRequest(EventType eventType, byte action, IOAcknowledge ack) {
+        mADKManager.sendRequest(action, null, GET_TIMEOUT, new GetReply(eventType, ack));
+        mListener.onSentCommand(ADK.COMMAND_GET, action, null);
+    }
+
+    /**
+     * Ask the ADK device to keep pushing tilt values at the given rate. They arrive as
+     * {@link ADK#ACTION_TILT_STREAM} responses, without a request per sample
+     *
+     * @param rate Samples per second, 1-255
+     */
+    private void subscribeTilt(int rate) {
+        mTiltStreamRate = rate;
+        startTiltStream(rate);
+    }
+
+    /**
+     * Ask the ADK device to stop pushing tilt values, for good
+     */
+    private void unsubscribeTilt() {
+        mTiltStreamRate = 0;
+        stopTiltStream();
+    }
+
+    /**
+     * Start the tilt stream of the ADK device, without changing the requested rate
+     *
+     * @param rate Samples per second, 1-255
+     */
+    private void startTiltStream(int rate) {
+        sendCommand(ADK.COMMAND_GET,
+                ADK.ACTION_SUBSCRIBE_TILT,
+                new byte[]{
+                        ADKManager.toUnsignedByte(rate)
+                });
+    }
+
+    /**
+     * Stop the tilt stream of the ADK device, without forgetting the requested rate
+     */
+    private void stopTiltStream() {
+        sendCommand(ADK.COMMAND_GET,
+                ADK.ACTION_UNSUBSCRIBE_TILT,
+                null);
+    }
+
+    /**
+     * Encode a reply of the ADK device as the arguments of a response event. Only call on the ADK communication thread
+     *
+     * @param data
+     * @param offset Where the reply starts in <code>data</code>
+     * @param length The full length of the reply, header included
+     * @return The event arguments, or null if the reply is malformed or unknown
+     */
+    private String encodeResponse(byte[] data, int offset, int length) {
+        int action = data[offset + 1];
+        int dataLength = length - ADK.RESPONSE_HEADER_SIZE;
+        int dataOffset = offset + ADK.RESPONSE_HEADER_SIZE;
+        switch (action) {
+            case ADK.ACTION_TUNE:
+                if (dataLength >= 36) {
+                    float[] pid = mPID;
+                    for (int i = 0; i < pid.length; i++) {
+                        pid[i] = Utils.bytesToFloat(data, dataOffset + i * 4);
+                    }
+
+                    return mEncoder.encodePID(EventType.ACTION_TUNE, pid, 0);
+                }
+
+                SLog.w(TAG, "Missing values to process action Tune");
+                return null;
+
+            case ADK.ACTION_TILT:
+            case ADK.ACTION_TILT_OFFSET:
+                if (dataLength >= 12) {
+                    float pitch = Utils.bytesToFloat(data, dataOffset);
+                    float roll = Utils.bytesToFloat(data, dataOffset + 4);
+                    float yaw = Utils.bytesToFloat(data, dataOffset + 8);
+
+                    return mEncoder.encodeAxes((action == ADK.ACTION_TILT) ?
+                            EventType.ACTION_TILT :
+                            EventType.ACTION_TILT_OFFSET, pitch, roll, yaw);
+                }
+
+                SLog.w(TAG, "Missing values to process action %s", ADK.parseAction((byte) action));
+                return null;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Send a response event to the server
+     *
+     * @param jsonArgs The event arguments, as encoded by {@link TelemetryEncoder}
+     */
+    private void emitResponse(String jsonArgs) {
+        SocketIO socket = mSocket;
+        if (socket == null) {
+            SLog.w(TAG, "Not connected to the server, dropped response: %s", jsonArgs);
+            return;
+        }
+
+        SLog.d(TAG, "Send response: %s", jsonArgs);
+        try {
+            socket.emitRaw(Event.RESPONSE.getValue(), jsonArgs);
+        } catch (Exception e) {
+            SLog.e(TAG, "Couldn't send response", e);
+        }
+    }
+
+    /**
+     * Send a telemetry response event to the server. Unlike {@link #emitResponse(String)}, stale telemetry may be
+     * dropped while the connection is down
+     *
+     * @param jsonArgs The event arguments, as encoded by {@link TelemetryEncoder}
+     */
+    private void emitTelemetry(String jsonArgs) {
+        SocketIO socket = mSocket;
+        if (socket == null) {
+            return;
+        }
+
         try {
-            pid.put("kp", kp);
-            pid.put("ki", ki);
-            pid.put("kd", kd);
+            socket.emitTelemetry(Event.RESPONSE.getValue(), jsonArgs);
         } catch (Exception e) {
-            SLog.e(TAG, "Couldn't create PID json object", e);
+            SLog.e(TAG, "Couldn't send telemetry", e);
+        }
+    }
+
+    /**
+     * @return The number of messages waiting to be sent to the server, 0 if there's no connection to wait for
+     */
+    private int getOutboundQueueDepth() {
+        SocketIO socket = mSocket;
+        if (socket == null) {
+            return 0;
         }
 
-        return pid;
+        try {
+            return socket.getOutboundQueueDepth();
+        } catch (Exception e) {
+            // the socket never connected
+            return 0;
+        }
     }
 
     ///////////////////////////////////////////////
@@ -646,6 +757,94 @@ public class SocketManager implements IOCallback, Callback {
         }
     }
 
+    /**
+     * Handler for get requests that don't look at the acknowledge
+     */
+    private abstract class RequestHandler implements EventRouter.RequestHandler {
+        @Override
+        public final void handle(EventType eventType, Object data) {
+            handle(eventType, data, null);
+        }
+    }
+
+    /**
+     * Completes a get request once the ADK device replies. Replies to requests without an acknowledge take the same
+     * route as unsolicited ones
+     */
+    private class GetReply implements RequestTracker.Reply {
+        private final EventType mEventType;
+        private final IOAcknowledge mAck;
+
+        GetReply(EventType eventType, IOAcknowledge ack) {
+            mEventType = eventType;
+            mAck = ack;
+        }
+
+        @Override
+        public void onReply(int sequence, byte[] data, int offset, int length, long latency) {
+            if (SLog.isLoggable(TAG, SLog.Type.DEBUG)) {
+                SLog.d(TAG, "Request %d (%s) answered in %d us", sequence, mEventType.getValue(), latency / 1000);
+            }
+
+            if (mAck == null) {
+                onDataReceived(ADK.COMMAND_RESPONSE, data, offset, length);
+                return;
+            }
+
+            String jsonArgs = encodeResponse(data, offset, length);
+            if (jsonArgs == null) {
+                ackError("malformed");
+                return;
+            }
+
+            if (mAck instanceof IORawAcknowledge) {
+                // the encoder already produced the arguments, don't parse them back into json objects
+                ((IORawAcknowledge) mAck).ackRaw(jsonArgs);
+                return;
+            }
+
+            try {
+                mAck.ack(new JSONArray(jsonArgs).get(0));
+            } catch (JSONException e) {
+                SLog.e(TAG, e, "Couldn't acknowledge request %d", sequence);
+            }
+        }
+
+        @Override
+        public void onExpired(int sequence) {
+            SLog.w(TAG, "Request %d (%s) expired", sequence, mEventType.getValue());
+            ackError("timeout");
+        }
+
+        private void ackError(String error) {
+            if (mAck != null) {
+                try {
+                    mAck.ack(new JSONObject()
+                            .put("type", mEventType.getValue())
+                            .put("error", error));
+                } catch (JSONException e) {
+                    SLog.e(TAG, e, "Couldn't acknowledge %s", mEventType.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Handler for events that can't be processed without a json object
+     */
+    private abstract class JsonHandler implements EventRouter.Handler {
+        @Override
+        public final void handle(EventType eventType, Object data) {
+            if (data instanceof JSONObject) {
+                handle((JSONObject) data);
+            } else {
+                SLog.w(TAG, "Missing values to process event type %s", eventType);
+            }
+        }
+
+        abstract void handle(JSONObject data);
+    }
+
     public interface SocketListener extends Callback {
         void onSentCommand(byte command, byte action, byte[] data);
 
@@ -654,5 +853,13 @@ public class SocketManager implements IOCallback, Callback {
         void onSocketDisconnected();
 
         void onSocketConnected();
+
+        /**
+         * Invoked after every ping of the socket connection
+         *
+         * @param rtt    Smoothed round trip, in milliseconds
+         * @param jitter Round trip variation, in milliseconds
+         */
+        void onLinkQuality(long rtt, long jitter);
     }
 }
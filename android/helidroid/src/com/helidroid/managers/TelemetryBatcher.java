@@ -0,0 +1,169 @@
+package com.helidroid.managers;
+
+import com.helidroid.commons.EventType;
+import com.helidroid.commons.TelemetryEncoder;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Collects high rate telemetry samples and emits them together once per flush interval. <br/>
+ * A batch is sent as a single event whose data is an array of samples, e.g.
+ * <code>[{"type":"tilt","data":[{"pitch":..,"roll":..,"yaw":..},{..}]}]</code>, so the framing and the transport send
+ * are paid once per interval instead of once per sample. A sample waits at most one interval before it's sent.<br/>
+ * Samples may be decimated, see {@link #setDecimation(int)}.
+ *
+ * @author Amir Lazarovich
+ */
+public class TelemetryBatcher {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int MAX_SAMPLES = 64;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final EventType mEventType;
+    private final long mFlushInterval;
+    private final Emitter mEmitter;
+    private final StringBuilder mBatch;
+    private final Object[] mLock;
+    private int mCount;
+    private int mDecimation = 1;
+    private int mSkipped;
+    private Timer mTimer;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param eventType     The type of the batched samples
+     * @param flushInterval In milliseconds
+     * @param emitter
+     */
+    public TelemetryBatcher(EventType eventType, long flushInterval, Emitter emitter) {
+        mEventType = eventType;
+        mFlushInterval = flushInterval;
+        mEmitter = emitter;
+        mBatch = new StringBuilder(1024);
+        mLock = new Object[0];
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Start flushing periodically
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (mTimer != null) {
+                return;
+            }
+
+            mTimer = new Timer("TelemetryBatcher");
+            mTimer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, mFlushInterval, mFlushInterval);
+        }
+    }
+
+    /**
+     * Stop flushing and drop pending samples
+     */
+    public void stop() {
+        synchronized (mLock) {
+            if (mTimer != null) {
+                mTimer.cancel();
+                mTimer = null;
+            }
+
+            mBatch.setLength(0);
+            mCount = 0;
+            mSkipped = 0;
+        }
+    }
+
+    /**
+     * Keep only one out of <code>decimation</code> samples, the others are dropped
+     *
+     * @param decimation 1 to keep every sample
+     */
+    public void setDecimation(int decimation) {
+        synchronized (mLock) {
+            mDecimation = Math.max(1, decimation);
+        }
+    }
+
+    /**
+     * Add a sample of pitch, roll and yaw values. Flushes right away if the batch is full
+     *
+     * @param pitch
+     * @param roll
+     * @param yaw
+     */
+    public void add(float pitch, float roll, float yaw) {
+        boolean full;
+        synchronized (mLock) {
+            if (++mSkipped < mDecimation) {
+                return;
+            }
+
+            mSkipped = 0;
+            if (mCount == 0) {
+                TelemetryEncoder.appendHeader(mBatch, mEventType);
+                mBatch.append('[');
+            } else {
+                mBatch.append(',');
+            }
+
+            TelemetryEncoder.appendAxes(mBatch, pitch, roll, yaw);
+            mCount++;
+            full = (mCount >= MAX_SAMPLES);
+        }
+
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Emit the pending samples, if any
+     */
+    public void flush() {
+        String jsonArgs;
+        synchronized (mLock) {
+            if (mCount == 0) {
+                return;
+            }
+
+            mBatch.append(']');
+            TelemetryEncoder.appendFooter(mBatch);
+            jsonArgs = mBatch.toString();
+            mBatch.setLength(0);
+            mCount = 0;
+        }
+
+        // emit outside the lock so new samples don't wait for the transport
+        mEmitter.emit(jsonArgs);
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    public interface Emitter {
+        /**
+         * Invoked with the encoded arguments of a batch
+         *
+         * @param jsonArgs
+         */
+        void emit(String jsonArgs);
+    }
+}
@@ -0,0 +1,99 @@
+package com.helidroid.managers;
+
+import com.labs.commons.SLog;
+
+/**
+ * Adapts the telemetry rate to the socket link. <br/>
+ * Telemetry shares the uplink with control traffic, so once the link can't keep up, telemetry has to give way.
+ * The controller watches the number of messages waiting to be sent and the measured round trip, and answers with a
+ * decimation factor: only one out of that many samples is sent. Congestion doubles the factor right away, the factor
+ * is halved again only after the link stayed clear for a while, so a flapping link doesn't make the rate oscillate.
+ *
+ * @author Amir Lazarovich
+ */
+public class TelemetryRateController {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String TAG = "TelemetryRateController";
+    private static final int MAX_DECIMATION = 16;
+    private static final int QUEUE_HIGH = 8; // messages
+    private static final int QUEUE_LOW = 1; // messages
+    private static final long RTT_HIGH = 500; // milliseconds
+    private static final long RTT_LOW = 200; // milliseconds
+    private static final long BACKOFF_INTERVAL = 250; // milliseconds, let a cut take effect before cutting again
+    private static final long RECOVER_INTERVAL = 1000; // milliseconds the link must stay clear per step back up
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private int mDecimation = 1;
+    private long mLastChange;
+    private long mClearSince = -1;
+    private volatile long mRtt;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Re-evaluate the rate. Call whenever telemetry is about to be sent
+     *
+     * @param queueDepth The number of messages waiting to be sent
+     * @return The decimation factor, 1 for the full rate
+     */
+    public synchronized int update(int queueDepth) {
+        long now = System.nanoTime() / 1000000;
+        long rtt = mRtt;
+        if (queueDepth > QUEUE_HIGH || rtt > RTT_HIGH) {
+            mClearSince = -1;
+            if (mDecimation < MAX_DECIMATION && now - mLastChange >= BACKOFF_INTERVAL) {
+                mDecimation *= 2;
+                mLastChange = now;
+                SLog.i(TAG, "Link congested (queue: %d, rtt: %d ms), sending 1/%d of the telemetry",
+                        queueDepth, rtt, mDecimation);
+            }
+        } else if (queueDepth <= QUEUE_LOW && rtt < RTT_LOW) {
+            if (mClearSince < 0) {
+                mClearSince = now;
+            } else if (mDecimation > 1 && now - mClearSince >= RECOVER_INTERVAL) {
+                mDecimation /= 2;
+                mLastChange = now;
+                mClearSince = now;
+                SLog.i(TAG, "Link recovering, sending 1/%d of the telemetry", mDecimation);
+            }
+        } else {
+            // in between, hold the current rate
+            mClearSince = -1;
+        }
+
+        return mDecimation;
+    }
+
+    /**
+     * Go back to the full rate, e.g. on a new connection
+     */
+    public synchronized void reset() {
+        mDecimation = 1;
+        mClearSince = -1;
+        mRtt = 0;
+    }
+
+    ///////////////////////////////////////////////
+    // Getters & Setters
+    ///////////////////////////////////////////////
+
+    /**
+     * @param rtt The smoothed round trip of the link, in milliseconds
+     */
+    public void setRtt(long rtt) {
+        mRtt = rtt;
+    }
+
+    /**
+     * @return The current decimation factor, 1 for the full rate
+     */
+    public synchronized int getDecimation() {
+        return mDecimation;
+    }
+}
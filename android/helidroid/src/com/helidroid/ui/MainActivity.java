@@ -30,6 +30,7 @@ public class MainActivity extends Activity implements SocketManager.SocketListen
     static final int ACK_RECEIVED = 2;
     static final int ADK_CONNECTION_STATUS_CHANGE = 3;
     static final int SOCKET_CONNECTION_STATUS_CHANGE = 4;
+    static final int LINK_QUALITY_CHANGE = 5;
 
     private static final int REQUEST_SETTINGS_ACTIVITY = 1;
 
@@ -146,7 +147,7 @@ public class MainActivity extends Activity implements SocketManager.SocketListen
     }
 
     @Override
-    public void onDataReceived(int command, byte[] data, int dataLength) {
+    public void onDataReceived(int command, byte[] data, int offset, int length) {
 
     }
 
@@ -164,6 +165,14 @@ public class MainActivity extends Activity implements SocketManager.SocketListen
                 false));
     }
 
+    @Override
+    public void onLinkQuality(long rtt, long jitter) {
+        mHandler.sendMessage(Message.obtain(null,
+                LINK_QUALITY_CHANGE,
+                (int) rtt,
+                (int) jitter));
+    }
+
     @Override
     public void onSentCommand(byte command, byte action, byte[] data) {
         SLog.d(TAG, "onSentCommand");
@@ -293,6 +302,10 @@ public class MainActivity extends Activity implements SocketManager.SocketListen
                     break;
                 }
 
+                case LINK_QUALITY_CHANGE:
+                    mTxtSocketStatus.setText(getString(string.socket_link_template, msg.arg1, msg.arg2));
+                    break;
+
             }
 
         }
@@ -11,20 +11,19 @@ import com.android.future.usb.UsbAccessory;
 import com.android.future.usb.UsbManager;
 import com.labs.commons.ADK;
 import com.labs.commons.SLog;
+import io.socket.ReconnectPolicy;
 
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Controls over communication with an ADK device. <br/>
- * Communication protocol: [command - 1 byte][action - 1 byte][data length - 1 byte][data - X bytes]
+ * Communication protocol: [command - 1 byte][action - 1 byte][data length - 1 byte][data - X bytes]<br/>
+ * {@link ADK#COMMAND_GET} data starts with a sequence id. The device replies without the data length, as
+ * [command - 1 byte][action - 1 byte][sequence - 1 byte][data - X bytes], see {@link ADK#getResponseLength(byte)}<br/>
+ * Incoming messages are reassembled by {@link FrameDecoder}, so they may be split or coalesced by the USB reads
  *
  * @author Amir Lazarovich
  */
@@ -34,6 +33,10 @@ public class ADKManager implements Runnable {
     ///////////////////////////////////////////////
     private static final String TAG = "ADKManager";
     private static final String ACTION_USB_PERMISSION = "com.labs.adk.action.USB_PERMISSION";
+    private static final long RECONNECT_BASE_DELAY = 250;
+    private static final long RECONNECT_MAX_DELAY = 10000;
+    private static final int RECONNECT_FAILURE_THRESHOLD = 8;
+    private static final long RECONNECT_OPEN_TIME = 30000;
 
     ///////////////////////////////////////////////
     // Members
@@ -44,15 +47,21 @@ public class ADKManager implements Runnable {
     private FileInputStream mInputStream;
     private FileOutputStream mOutputStream;
 
-    private ExecutorService mPool;
+    private CommandWriter mWriter;
     private Context mContext;
     private Handler mHandler;
     private Callback mCallback;
     private Thread mCommunicationThread;
     private final Object[] mLock;
+    private final FrameDecoder mDecoder;
+    private final FrameDecoder.Listener mFrameListener;
+    private final ReconnectPolicy mReconnectPolicy;
+    private final Runnable mConnectTask;
+    private final RequestTracker mRequests;
+    private final Runnable mExpireTask;
 
     private boolean mConnected = false;
-    private Timer mTimer;
+    private boolean mPermissionRequested = false;
     private BroadcastReceiver mUsbReceiver;
 
     ///////////////////////////////////////////////
@@ -63,8 +72,24 @@ public class ADKManager implements Runnable {
         mContext = context;
         mHandler = new Handler();
         mCallback = callback;
-        mPool = Executors.newSingleThreadExecutor();
+        mWriter = new CommandWriter(new CommandWriter.Listener() {
+            @Override
+            public void onWriteFailed() {
+                reconnect();
+            }
+        });
+        // stick positions are only relevant until the next ones arrive, never replay stale ones
+        mWriter.conflate(ADK.COMMAND_CONTROL, ADK.ACTION_STICKS);
+        mWriter.conflate(ADK.COMMAND_CONTROL, ADK.ACTION_LEFT_STICK);
+        mWriter.conflate(ADK.COMMAND_CONTROL, ADK.ACTION_RIGHT_STICK);
         mLock = new Object[0];
+        mDecoder = new FrameDecoder();
+        mFrameListener = new FrameListener();
+        mReconnectPolicy = new ReconnectPolicy(RECONNECT_BASE_DELAY, RECONNECT_MAX_DELAY,
+                RECONNECT_FAILURE_THRESHOLD, RECONNECT_OPEN_TIME);
+        mConnectTask = new ConnectTask();
+        mRequests = new RequestTracker();
+        mExpireTask = new ExpireTask();
     }
 
 
@@ -73,31 +98,12 @@ public class ADKManager implements Runnable {
     ///////////////////////////////////////////////
 
     /**
-     * Connect to the ADK
+     * Connect to the ADK right away. Keeps retrying with a backoff until a device is attached, see
+     * {@link ReconnectPolicy}
      */
     public void connect() {
-        mTimer = new Timer();
-        TimerTask reconnectTask = new TimerTask() {
-
-            @Override
-            public void run() {
-                synchronized (mLock) {
-                    if (!mConnected) {
-                        SLog.d(TAG, "Connecting to ADK...");
-                        disconnectInternal();
-                        connectInternal();
-                    } else {
-                        mTimer.cancel();
-                    }
-                }
-            }
-        };
-
-        try {
-            mTimer.schedule(reconnectTask, 0, 10000);
-        } catch (IllegalStateException e) {
-            SLog.e(TAG, "Can't schedule a task on a canceled timer", e);
-        }
+        mWriter.start();
+        scheduleConnect(mReconnectPolicy.retryNow());
     }
 
     /**
@@ -105,45 +111,50 @@ public class ADKManager implements Runnable {
      */
     public void disconnect() {
         SLog.d(TAG, "Disconnecting from the ADK device");
+        mHandler.removeCallbacks(mConnectTask);
         disconnectInternal();
+        // the output is closed by now, so the writer can't be stuck in a write
+        mWriter.stop();
         mCallback.onDisconnected();
     }
 
     /**
-     * Send command to the ADK
+     * Send command to the ADK. The command is queued and written by {@link CommandWriter} along with any other pending commands
      *
      * @param command
      * @param action
      * @param data    May also be null if there's no data (if you read this, you rock!)
      */
-    public void sendCommand(final byte command, final byte action, final byte[] data) {
-        mPool.execute(new Runnable() {
-            @Override
-            public void run() {
-                int dataLength = ((data != null) ? data.length : 0);
-
-                ByteBuffer buffer = ByteBuffer.allocate(3 + dataLength);
-                buffer.put(command);
-                buffer.put(action);
-                buffer.put(toUnsignedByte(dataLength));
-                if (data != null) {
-                    buffer.put(data);
-                }
+    public void sendCommand(byte command, byte action, byte[] data) {
+        // get commands always carry a sequence id, untracked ones don't expect a reply of their own
+        int sequence = (command == ADK.COMMAND_GET) ? ADK.NO_SEQUENCE : CommandWriter.NO_SEQUENCE;
+        if (!mWriter.offer(command, action, sequence, data)) {
+            SLog.w(TAG, "sendCommand: Command queue is full or not connected, dropped %s", ADK.parseAction(action));
+        }
+    }
 
-                if (mOutputStream != null) {
-                    try {
-                        SLog.d(TAG, "sendCommand: Sending data to ADK device: " + buffer);
-                        mOutputStream.write(buffer.array());
-                    } catch (IOException e) {
-                        SLog.e(TAG, e, "sendCommand: Failed to send command to ADK device");
-                        reconnect();
-                    }
-                } else {
-                    SLog.d(TAG, "sendCommand: Send failed: mOutStream was null");
-                    reconnect();
-                }
-            }
-        });
+    /**
+     * Send a {@link ADK#COMMAND_GET} request and get its reply. Several requests may be in flight at once, see
+     * {@link RequestTracker}
+     *
+     * @param action
+     * @param data    May be null if there's no data
+     * @param timeout How long to wait for the reply, in milliseconds
+     * @param reply   Notified once, when the reply arrives or the request expires
+     * @return The sequence id of the request, or -1 if it couldn't be queued
+     */
+    public int sendRequest(byte action, byte[] data, long timeout, RequestTracker.Reply reply) {
+        int sequence = mRequests.track(action, timeout, reply);
+        if (!mWriter.offer(ADK.COMMAND_GET, action, sequence, data)) {
+            SLog.w(TAG, "sendRequest: Command queue is full or not connected, dropped %s", ADK.parseAction(action));
+            mRequests.cancel(action, sequence);
+            return -1;
+        }
+
+        // recompute the next deadline, this request may expire before the ones already pending
+        mHandler.removeCallbacks(mExpireTask);
+        mHandler.post(mExpireTask);
+        return sequence;
     }
 
     /**
@@ -174,39 +185,75 @@ public class ADKManager implements Runnable {
      */
     @Override
     public void run() {
-        int ret;
-        byte[] buffer = new byte[16384];
+        mDecoder.reset();
 
         // Keeps reading messages forever.
-        // There are probably a lot of messages in the buffer, each message 4 bytes.
+        // A single read may hold several messages or only part of one, the decoder sorts it out
         while (true) {
             try {
-                ret = mInputStream.read(buffer);
-                if (ret > 0) {
-                    int command = buffer[0];
-                    SLog.d(TAG, "command: %d, length: %d", command, ret);
-                    switch (command) {
-                        case ADK.COMMAND_ACK:
-                            runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    mCallback.onAckReceived(true);
-                                }
-                            });
-                            break;
-
-                        default:
-                            mCallback.onDataReceived(command, buffer, ret);
-                            break;
-                    }
+                if (mDecoder.readFrom(mInputStream) < 0) {
+                    break;
                 }
+
+                mDecoder.decode(mFrameListener);
             } catch (Exception e) {
                 break;
             }
+        }
+
+        mDecoder.reset();
 
+        // the device went away on its own, not through disconnect()
+        boolean dropped;
+        synchronized (mLock) {
+            dropped = mConnected && mCommunicationThread == Thread.currentThread();
+        }
+
+        if (dropped) {
+            SLog.w(TAG, "Lost the ADK device");
+            reconnect();
         }
     }
 
+    ///////////////////////////////////////////////
+    // Getters & Setters
+    ///////////////////////////////////////////////
+
+    /**
+     * @return The number of bytes skipped while looking for the start of a message
+     */
+    public long getResyncCount() {
+        return mDecoder.getResyncCount();
+    }
+
+    /**
+     * @return The number of partial messages dropped
+     */
+    public long getTruncatedFrameCount() {
+        return mDecoder.getTruncatedCount();
+    }
+
+    /**
+     * @return The writer in charge of outgoing commands, exposes queue depth and write latency
+     */
+    public CommandWriter getCommandWriter() {
+        return mWriter;
+    }
+
+    /**
+     * @return The tracker of pending requests, exposes the request latency
+     */
+    public RequestTracker getRequestTracker() {
+        return mRequests;
+    }
+
+    /**
+     * @return The policy deciding when to reconnect, exposes the reconnect time histogram
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        return mReconnectPolicy;
+    }
+
     ///////////////////////////////////////////////
     // Private
     ///////////////////////////////////////////////
@@ -233,6 +280,7 @@ public class ADKManager implements Runnable {
                 if (mUsbManager.hasPermission(accessory)) {
                     openAccessory(accessory);
                 } else {
+                    mPermissionRequested = true;
                     mUsbManager.requestPermission(accessory, permissionIntent);
                 }
             }
@@ -245,9 +293,7 @@ public class ADKManager implements Runnable {
     private void disconnectInternal() {
         synchronized (mLock) {
             mConnected = false;
-            if (mTimer != null) {
-                mTimer.cancel();
-            }
+            mPermissionRequested = false;
 
             if (mUsbReceiver != null) {
                 try {
@@ -280,6 +326,7 @@ public class ADKManager implements Runnable {
                 }
             }
 
+            mWriter.setOutput(null);
             if (mOutputStream != null) {
                 try {
                     mOutputStream.close();
@@ -292,15 +339,38 @@ public class ADKManager implements Runnable {
 
             mAccessory = null;
         }
+
+        // the replies won't come anymore
+        mRequests.expireAll();
     }
 
     /**
-     * Try to reconnected
+     * Try to reconnect after the connection dropped, with a backoff
      */
     void reconnect() {
-        SLog.i(TAG, "attempting to reconnect to ADK device");
-        disconnect();
-        connect();
+        synchronized (mLock) {
+            if (!mConnected) {
+                // already dropped, a reconnect is on its way
+                return;
+            }
+
+            disconnectInternal();
+        }
+
+        mCallback.onDisconnected();
+        long delay = mReconnectPolicy.nextDelay();
+        SLog.i(TAG, "attempting to reconnect to ADK device in %d ms", delay);
+        scheduleConnect(delay);
+    }
+
+    /**
+     * Schedule a connection attempt, replacing any pending one
+     *
+     * @param delay In milliseconds
+     */
+    private void scheduleConnect(long delay) {
+        mHandler.removeCallbacks(mConnectTask);
+        mHandler.postDelayed(mConnectTask, delay);
     }
 
     /**
@@ -317,6 +387,7 @@ public class ADKManager implements Runnable {
                 FileDescriptor fd = mFileDescriptor.getFileDescriptor();
                 mInputStream = new FileInputStream(fd);
                 mOutputStream = new FileOutputStream(fd);
+                mWriter.setOutput(mOutputStream.getChannel());
 
                 if (mCommunicationThread != null) {
                     mCommunicationThread.interrupt();
@@ -325,6 +396,7 @@ public class ADKManager implements Runnable {
                 mCommunicationThread = new Thread(null, this, TAG);
                 mCommunicationThread.start();
                 mConnected = true;
+                mReconnectPolicy.onConnected();
                 mCallback.onConnected();
                 SLog.d(TAG, "Attached");
             } else {
@@ -346,6 +418,85 @@ public class ADKManager implements Runnable {
     // Inner classes
     ///////////////////////////////////////////////
 
+    /**
+     * A single connection attempt, schedules the next one if no device could be opened
+     */
+    private class ConnectTask implements Runnable {
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                if (mConnected) {
+                    return;
+                }
+
+                SLog.d(TAG, "Connecting to ADK...");
+                disconnectInternal();
+                connectInternal();
+                if (mConnected || mPermissionRequested) {
+                    // done, or the permission broadcast takes it from here
+                    return;
+                }
+            }
+
+            long delay = mReconnectPolicy.nextDelay();
+            SLog.d(TAG, "No ADK device, retrying in %d ms", delay);
+            scheduleConnect(delay);
+        }
+    }
+
+    /**
+     * Expires the requests that outlived their deadline, and runs again at the next deadline
+     */
+    private class ExpireTask implements Runnable {
+        @Override
+        public void run() {
+            mHandler.removeCallbacks(this);
+            long delay = mRequests.expire();
+            if (delay >= 0) {
+                mHandler.postDelayed(this, delay);
+            }
+        }
+    }
+
+    /**
+     * Dispatches complete messages coming out of {@link FrameDecoder}
+     */
+    private class FrameListener implements FrameDecoder.Listener {
+        @Override
+        public void onFrame(int command, byte[] buffer, int offset, int length) {
+            if (SLog.isLoggable(TAG, SLog.Type.DEBUG)) {
+                SLog.d(TAG, "command: %d, length: %d", command, length);
+            }
+
+            switch (command) {
+                case ADK.COMMAND_ACK:
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallback.onAckReceived(true);
+                        }
+                    });
+                    break;
+
+                case ADK.COMMAND_RESPONSE:
+                    int sequence = buffer[offset + 2] & 0xFF;
+                    if (sequence == ADK.NO_SEQUENCE) {
+                        // sent by the device on its own, e.g. streamed tilt
+                        mCallback.onDataReceived(command, buffer, offset, length);
+                    } else if (!mRequests.complete(buffer[offset + 1], sequence, buffer, offset, length)) {
+                        // replies to a tracked request go to the request only, nobody is waiting for a late one
+                        SLog.w(TAG, "Dropped a late %s reply to request %d", ADK.parseAction(buffer[offset + 1]),
+                                sequence);
+                    }
+                    break;
+
+                default:
+                    mCallback.onDataReceived(command, buffer, offset, length);
+                    break;
+            }
+        }
+    }
+
     /**
      * Listens for the following events:
      * {@link #ACTION_USB_PERMISSION}, {@link com.android.future.usb.UsbManager#ACTION_USB_ACCESSORY_ATTACHED}, {@link com.android.future.usb.UsbManager#ACTION_USB_ACCESSORY_DETACHED}
@@ -358,6 +509,7 @@ public class ADKManager implements Runnable {
 
             if (ACTION_USB_PERMISSION.equals(action)) {
                 synchronized (mLock) {
+                    mPermissionRequested = false;
                     UsbAccessory accessory = UsbManager.getAccessory(intent);
                     if (intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false)) {
                         openAccessory(accessory);
@@ -367,6 +519,7 @@ public class ADKManager implements Runnable {
                 }
             } else if (UsbManager.ACTION_USB_ACCESSORY_ATTACHED.equals(action)) {
                 SLog.d(TAG, "BroadcastReceiver:: USB Attached");
+                // no point in waiting out the backoff, the device is right there
                 connect();
             } else if (UsbManager.ACTION_USB_ACCESSORY_DETACHED.equals(action)) {
                 UsbAccessory accessory = UsbManager.getAccessory(intent);
@@ -22,11 +22,14 @@ public interface Callback {
     void onDisconnected();
 
     /**
-     * Callback invoked when the ADK device sends data back
+     * Callback invoked when the ADK device sends data back. <br/>
+     * The message is laid out as [command][action][sequence][data] starting at <code>offset</code>.
+     * <code>data</code> is reused once this call returns, copy anything that needs to outlive it
      *
      * @param command
      * @param data
-     * @param dataLength
+     * @param offset  Where the message starts in <code>data</code>
+     * @param length  The full length of the message, header included
      */
-    void onDataReceived(int command, byte[] data, int dataLength);
+    void onDataReceived(int command, byte[] data, int offset, int length);
 }
@@ -0,0 +1,502 @@
+package com.labs.adk;
+
+import com.labs.commons.ADK;
+import com.labs.commons.SLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes commands to the ADK device from a single dedicated thread. <br/>
+ * Commands are copied into a preallocated ring of direct buffers, so queuing a command doesn't allocate anything.
+ * Every time the writer wakes up it drains all the pending commands as one batch. Each command still goes out in a
+ * write of its own, the device only handles the first command of every USB transfer.<br/>
+ * Commands registered with {@link #conflate(byte, byte)} are latest-value-wins: a newer one drops the pending one and
+ * is queued at the tail, so a stalled link never replays stale values. All other commands are one-shots. Either way
+ * commands are written in the order they were queued, a one-shot never falls behind a value that came after it.
+ *
+ * @author Amir Lazarovich
+ */
+public class CommandWriter implements Runnable {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String TAG = "CommandWriter";
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int MAX_CONFLATED_KEYS = 16;
+
+    // no sequence id to write ahead of the data
+    public static final int NO_SEQUENCE = -1;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final ByteBuffer[] mSlots;
+    private final long[] mEnqueueTimes;
+    private final boolean[] mConflatable;
+    private final int[] mConflatedKeys;
+    private int mConflatedKeyCount;
+    private final ByteBuffer[] mBatch;
+    private final Object[] mLock;
+    private final Listener mListener;
+    private WritableByteChannel mOutput;
+    private Thread mThread;
+    private int mHead;
+    private int mSize;
+    private int mClaimed;
+
+    // member-statistics
+    private long mCommandCount;
+    private long mBatchCount;
+    private long mDroppedCount;
+    private long mConflatedCount;
+    private int mMaxQueueDepth;
+    private long mLastWriteLatency;
+    private long mMaxWriteLatency;
+    private long mTotalWriteLatency;
+    private long mLastQueueLatency;
+    private long mMaxQueueLatency;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    public CommandWriter(Listener listener) {
+        this(DEFAULT_CAPACITY, listener);
+    }
+
+    public CommandWriter(int capacity, Listener listener) {
+        mListener = listener;
+        mLock = new Object[0];
+        mSlots = new ByteBuffer[capacity];
+        mBatch = new ByteBuffer[capacity];
+        mEnqueueTimes = new long[capacity];
+        mConflatable = new boolean[capacity];
+        mConflatedKeys = new int[MAX_CONFLATED_KEYS];
+        for (int i = 0; i < capacity; i++) {
+            mSlots[i] = ByteBuffer.allocateDirect(ADK.MAX_FRAME_SIZE);
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Start the writer thread. Commands offered while the writer is stopped are dropped
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (mThread == null) {
+                mThread = new Thread(null, this, TAG);
+                mThread.start();
+            }
+        }
+    }
+
+    /**
+     * Stop the writer thread and drop whatever is still pending. Blocks until the thread is gone, close the output
+     * first so a write in progress doesn't hold it up
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            thread = mThread;
+            mThread = null;
+        }
+
+        if (thread == null) {
+            return;
+        }
+
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        synchronized (mLock) {
+            mDroppedCount += mSize;
+            mHead = 0;
+            mSize = 0;
+            mClaimed = 0;
+        }
+    }
+
+    /**
+     * Make commands with the given command and action latest-value-wins
+     *
+     * @param command
+     * @param action
+     */
+    public void conflate(byte command, byte action) {
+        synchronized (mLock) {
+            int key = toKey(command, action);
+            for (int i = 0; i < mConflatedKeyCount; i++) {
+                if (mConflatedKeys[i] == key) {
+                    return;
+                }
+            }
+
+            if (mConflatedKeyCount == mConflatedKeys.length) {
+                throw new IllegalStateException("Can't conflate more than " + MAX_CONFLATED_KEYS + " commands");
+            }
+
+            mConflatedKeys[mConflatedKeyCount++] = key;
+        }
+    }
+
+    /**
+     * Replace the channel commands are written to
+     *
+     * @param output May be null while disconnected
+     */
+    public void setOutput(WritableByteChannel output) {
+        synchronized (mLock) {
+            mOutput = output;
+        }
+    }
+
+    /**
+     * Queue a command
+     *
+     * @param command
+     * @param action
+     * @param data    May be null if there's no data
+     * @return false if the queue is full or the writer is stopped, and the command was dropped
+     */
+    public boolean offer(byte command, byte action, byte[] data) {
+        return offer(command, action, NO_SEQUENCE, data);
+    }
+
+    /**
+     * Queue a command whose data starts with a sequence id, see {@link ADK#COMMAND_GET}
+     *
+     * @param command
+     * @param action
+     * @param sequence 0-255, written right before <code>data</code>, or {@link #NO_SEQUENCE} to write <code>data</code>
+     *                 as is
+     * @param data     May be null if there's no data
+     * @return false if the queue is full or the writer is stopped, and the command was dropped
+     */
+    public boolean offer(byte command, byte action, int sequence, byte[] data) {
+        int dataLength = ((data != null) ? data.length : 0) + ((sequence != NO_SEQUENCE) ? 1 : 0);
+        if (dataLength > ADK.MAX_DATA_LENGTH) {
+            throw new IllegalArgumentException("data can't be longer than " + ADK.MAX_DATA_LENGTH + " bytes");
+        }
+
+        synchronized (mLock) {
+            if (mThread == null) {
+                mDroppedCount++;
+                return false;
+            }
+
+            boolean conflatable = isConflatable(command, action);
+            if (conflatable) {
+                // slots below mClaimed are being written right now, leave them alone
+                for (int i = mClaimed; i < mSize; i++) {
+                    int index = (mHead + i) % mSlots.length;
+                    ByteBuffer slot = mSlots[index];
+                    if (mConflatable[index] && slot.get(0) == command && slot.get(1) == action) {
+                        moveToTail(i);
+                        int tail = (mHead + mSize - 1) % mSlots.length;
+                        fill(mSlots[tail], command, action, sequence, data, dataLength);
+                        mEnqueueTimes[tail] = System.nanoTime();
+                        mConflatedCount++;
+                        return true;
+                    }
+                }
+            }
+
+            if (mSize == mSlots.length) {
+                mDroppedCount++;
+                return false;
+            }
+
+            int index = (mHead + mSize) % mSlots.length;
+            fill(mSlots[index], command, action, sequence, data, dataLength);
+            mConflatable[index] = conflatable;
+            mEnqueueTimes[index] = System.nanoTime();
+            mSize++;
+            if (mSize > mMaxQueueDepth) {
+                mMaxQueueDepth = mSize;
+            }
+
+            mLock.notify();
+            return true;
+        }
+    }
+
+    /**
+     * @return The number of commands waiting to be written
+     */
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mSize;
+        }
+    }
+
+    /**
+     * @return The highest number of commands that were waiting at once
+     */
+    public int getMaxQueueDepth() {
+        synchronized (mLock) {
+            return mMaxQueueDepth;
+        }
+    }
+
+    /**
+     * @return The number of commands written so far
+     */
+    public long getCommandCount() {
+        synchronized (mLock) {
+            return mCommandCount;
+        }
+    }
+
+    /**
+     * @return The number of batches written so far
+     */
+    public long getBatchCount() {
+        synchronized (mLock) {
+            return mBatchCount;
+        }
+    }
+
+    /**
+     * @return The number of commands dropped because the queue was full, the writer was stopped or they couldn't be
+     * written
+     */
+    public long getDroppedCount() {
+        synchronized (mLock) {
+            return mDroppedCount;
+        }
+    }
+
+    /**
+     * @return The number of pending commands that were replaced by a newer value
+     */
+    public long getConflatedCount() {
+        synchronized (mLock) {
+            return mConflatedCount;
+        }
+    }
+
+    /**
+     * @return How long writing the last batch took, in nanoseconds
+     */
+    public long getLastWriteLatency() {
+        synchronized (mLock) {
+            return mLastWriteLatency;
+        }
+    }
+
+    /**
+     * @return The longest time writing a batch took, in nanoseconds
+     */
+    public long getMaxWriteLatency() {
+        synchronized (mLock) {
+            return mMaxWriteLatency;
+        }
+    }
+
+    /**
+     * @return The average time writing a batch took, in nanoseconds
+     */
+    public long getAverageWriteLatency() {
+        synchronized (mLock) {
+            return (mBatchCount == 0) ? 0 : mTotalWriteLatency / mBatchCount;
+        }
+    }
+
+    /**
+     * @return How long the oldest command of the last batch waited before it was written, in nanoseconds
+     */
+    public long getLastQueueLatency() {
+        synchronized (mLock) {
+            return mLastQueueLatency;
+        }
+    }
+
+    /**
+     * @return The longest time a command waited before it was written, in nanoseconds
+     */
+    public long getMaxQueueLatency() {
+        synchronized (mLock) {
+            return mMaxQueueLatency;
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+
+    /**
+     * The writer thread. Waits for commands and drains them in batches until {@link #stop()} interrupts it
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            int count;
+            long enqueueTime;
+            WritableByteChannel output;
+            synchronized (mLock) {
+                while (mSize == 0) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                // the slots in [mHead, mHead + count) are owned by this thread until they're released below
+                count = mSize;
+                mClaimed = count;
+                for (int i = 0; i < count; i++) {
+                    mBatch[i] = mSlots[(mHead + i) % mSlots.length];
+                }
+
+                enqueueTime = mEnqueueTimes[mHead];
+                output = mOutput;
+            }
+
+            boolean failed = false;
+            long start = System.nanoTime();
+            if (output != null) {
+                try {
+                    if (SLog.isLoggable(TAG, SLog.Type.DEBUG)) {
+                        SLog.d(TAG, "Sending %d commands to ADK device", count);
+                    }
+
+                    // one command per write, a coalesced transfer would lose all commands but the first
+                    for (int i = 0; i < count; i++) {
+                        while (mBatch[i].hasRemaining()) {
+                            output.write(mBatch[i]);
+                        }
+                    }
+                } catch (IOException e) {
+                    SLog.e(TAG, e, "Failed to send %d commands to ADK device", count);
+                    failed = true;
+                }
+            } else {
+                SLog.d(TAG, "Send failed: output was null");
+                failed = true;
+            }
+
+            long end = System.nanoTime();
+            synchronized (mLock) {
+                for (int i = 0; i < count; i++) {
+                    mBatch[i] = null;
+                }
+
+                mHead = (mHead + count) % mSlots.length;
+                mSize -= count;
+                mClaimed = 0;
+                if (failed) {
+                    mDroppedCount += count;
+                } else {
+                    long writeLatency = end - start;
+                    mCommandCount += count;
+                    mBatchCount++;
+                    mLastWriteLatency = writeLatency;
+                    mTotalWriteLatency += writeLatency;
+                    mMaxWriteLatency = Math.max(mMaxWriteLatency, writeLatency);
+                    mLastQueueLatency = end - enqueueTime;
+                    mMaxQueueLatency = Math.max(mMaxQueueLatency, mLastQueueLatency);
+                }
+            }
+
+            if (failed) {
+                mListener.onWriteFailed();
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Check if commands with the given command and action are latest-value-wins. Must hold {@link #mLock}
+     *
+     * @param command
+     * @param action
+     * @return
+     */
+    private boolean isConflatable(byte command, byte action) {
+        int key = toKey(command, action);
+        for (int i = 0; i < mConflatedKeyCount; i++) {
+            if (mConflatedKeys[i] == key) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Move a pending slot behind all the others, shifting the ones after it one place ahead. Must hold {@link #mLock}
+     *
+     * @param position The position of the slot in the queue, at least {@link #mClaimed}
+     */
+    private void moveToTail(int position) {
+        int length = mSlots.length;
+        int index = (mHead + position) % length;
+        ByteBuffer slot = mSlots[index];
+        boolean conflatable = mConflatable[index];
+        for (int i = position; i < mSize - 1; i++) {
+            int from = (mHead + i + 1) % length;
+            mSlots[index] = mSlots[from];
+            mEnqueueTimes[index] = mEnqueueTimes[from];
+            mConflatable[index] = mConflatable[from];
+            index = from;
+        }
+
+        mSlots[index] = slot;
+        mConflatable[index] = conflatable;
+    }
+
+    /**
+     * Write a full command into <code>slot</code> and make it ready to be written out
+     *
+     * @param slot
+     * @param command
+     * @param action
+     * @param sequence
+     * @param data
+     * @param dataLength Including the sequence id, if any
+     */
+    private static void fill(ByteBuffer slot, byte command, byte action, int sequence, byte[] data, int dataLength) {
+        slot.clear();
+        slot.put(command);
+        slot.put(action);
+        slot.put(ADKManager.toUnsignedByte(dataLength));
+        if (sequence != NO_SEQUENCE) {
+            slot.put(ADKManager.toUnsignedByte(sequence));
+        }
+
+        if (data != null) {
+            slot.put(data);
+        }
+
+        slot.flip();
+    }
+
+    private static int toKey(byte command, byte action) {
+        return ((command & 0xFF) << 8) | (action & 0xFF);
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    public interface Listener {
+        /**
+         * Invoked on the writer thread when commands couldn't be written to the ADK device
+         */
+        void onWriteFailed();
+    }
+}
@@ -0,0 +1,215 @@
+package com.labs.adk;
+
+import com.labs.commons.ADK;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Incremental decoder for the ADK byte stream. <br/>
+ * A single read from the accessory may hold several messages, or only part of one. The decoder keeps whatever
+ * is left of a partial message between reads and hands out every complete one in place, without copying it.<br/>
+ * The device only sends two kinds of messages: {@link ADK#COMMAND_ACK}, a single byte, and
+ * {@link ADK#COMMAND_RESPONSE}, laid out as [command - 1 byte][action - 1 byte][sequence - 1 byte][data - X bytes]
+ * and sized by its action, see {@link ADK#getResponseLength(byte)}. Any other byte is skipped on its own.
+ *
+ * @author Amir Lazarovich
+ */
+public class FrameDecoder {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int DEFAULT_CAPACITY = 16384;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final byte[] mBuffer;
+    private int mStart;
+    private int mEnd;
+
+    // member-statistics
+    private long mFrameCount;
+    private long mResyncCount;
+    private long mTruncatedCount;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    public FrameDecoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Must be able to hold at least one message of the maximal size
+     */
+    public FrameDecoder(int capacity) {
+        if (capacity < ADK.MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("capacity must be at least " + ADK.MAX_FRAME_SIZE);
+        }
+
+        mBuffer = new byte[capacity];
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Read the next chunk of the stream straight into the decoder's buffer
+     *
+     * @param in
+     * @return The number of bytes read, or -1 at the end of the stream
+     * @throws IOException
+     */
+    public int readFrom(InputStream in) throws IOException {
+        compact();
+        int ret = in.read(mBuffer, mEnd, mBuffer.length - mEnd);
+        if (ret > 0) {
+            mEnd += ret;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Append bytes that were read elsewhere
+     *
+     * @param data
+     * @param offset
+     * @param length
+     */
+    public void feed(byte[] data, int offset, int length) {
+        while (length > 0) {
+            compact();
+            int count = Math.min(length, mBuffer.length - mEnd);
+            if (count == 0) {
+                // the buffer is full of garbage that doesn't form a message, drop it
+                mTruncatedCount++;
+                mStart = mEnd = 0;
+                continue;
+            }
+
+            System.arraycopy(data, offset, mBuffer, mEnd, count);
+            mEnd += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Deliver every complete message found in the buffer. Partial messages are kept for the next round.<br/>
+     * The buffer handed to the listener is only valid for the duration of the call.
+     *
+     * @param listener
+     * @return The number of messages delivered
+     */
+    public int decode(Listener listener) {
+        int frames = 0;
+        while (mStart < mEnd) {
+            byte command = mBuffer[mStart];
+            int frameLength;
+            if (command == ADK.COMMAND_ACK) {
+                frameLength = 1;
+            } else if (command == ADK.COMMAND_RESPONSE) {
+                if (mEnd - mStart < ADK.RESPONSE_HEADER_SIZE) {
+                    break;
+                }
+
+                frameLength = ADK.getResponseLength(mBuffer[mStart + 1]);
+                if (frameLength < 0) {
+                    // not a reply the device sends, this isn't the start of a message
+                    mResyncCount++;
+                    mStart++;
+                    continue;
+                }
+            } else {
+                // lost track of the message boundaries, skip ahead until the device's command shows up
+                mResyncCount++;
+                mStart++;
+                continue;
+            }
+
+            if (mEnd - mStart < frameLength) {
+                break;
+            }
+
+            int offset = mStart;
+            mStart += frameLength;
+            mFrameCount++;
+            frames++;
+            listener.onFrame(command, mBuffer, offset, frameLength);
+        }
+
+        if (mStart == mEnd) {
+            mStart = mEnd = 0;
+        }
+
+        return frames;
+    }
+
+    /**
+     * Drop any partial message, e.g. after the connection was lost
+     */
+    public void reset() {
+        if (mEnd > mStart) {
+            mTruncatedCount++;
+        }
+
+        mStart = mEnd = 0;
+    }
+
+    /**
+     * @return The number of complete messages delivered so far
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return The number of bytes skipped while looking for the start of a message
+     */
+    public long getResyncCount() {
+        return mResyncCount;
+    }
+
+    /**
+     * @return The number of partial messages that were dropped
+     */
+    public long getTruncatedCount() {
+        return mTruncatedCount;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Move the pending bytes to the beginning of the buffer so there's room to read more
+     */
+    private void compact() {
+        if (mStart > 0) {
+            int pending = mEnd - mStart;
+            System.arraycopy(mBuffer, mStart, mBuffer, 0, pending);
+            mStart = 0;
+            mEnd = pending;
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    public interface Listener {
+        /**
+         * Invoked for each complete message
+         *
+         * @param command
+         * @param buffer  The decoder's buffer, don't hold on to it
+         * @param offset  Where the message starts in <code>buffer</code>
+         * @param length  The full length of the message, header included
+         */
+        void onFrame(int command, byte[] buffer, int offset, int length);
+    }
+}
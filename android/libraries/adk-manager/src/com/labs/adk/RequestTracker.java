@@ -0,0 +1,331 @@
+package com.labs.adk;
+
+import com.labs.commons.ADK;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Matches {@link com.labs.commons.ADK#COMMAND_GET} requests with their {@link com.labs.commons.ADK#COMMAND_RESPONSE}
+ * replies. <br/>
+ * Every request gets a sequence id and a deadline. The id goes out with the request and the device echoes it in the
+ * reply, so a reply only completes the request it answers, even if it arrives out of order. A reply whose request
+ * already expired completes nothing. Several queries can be in flight at once.<br/>
+ * Requests that outlive their deadline are expired, see {@link #expire()}.
+ *
+ * @author Amir Lazarovich
+ */
+public class RequestTracker {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int ACTION_COUNT = 256;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final ArrayDeque<Request>[] mPending;
+    private final Object[] mLock;
+    private int mNextSequence = 1;
+    private int mPendingCount;
+
+    // member-statistics
+    private long mCompletedCount;
+    private long mExpiredCount;
+    private long mLateCount;
+    private long mLastLatency;
+    private long mMaxLatency;
+    private long mTotalLatency;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    @SuppressWarnings("unchecked")
+    public RequestTracker() {
+        mPending = new ArrayDeque[ACTION_COUNT];
+        mLock = new Object[0];
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Start tracking a request. Must be called before the request is sent, so the reply can't beat it
+     *
+     * @param action
+     * @param timeout How long to wait for the reply, in milliseconds
+     * @param reply   Notified once, when the reply arrives or the request expires
+     * @return The sequence id of the request, 1-255
+     */
+    public int track(byte action, long timeout, Reply reply) {
+        synchronized (mLock) {
+            int index = action & 0xFF;
+            ArrayDeque<Request> pending = mPending[index];
+            if (pending == null) {
+                pending = new ArrayDeque<Request>();
+                mPending[index] = pending;
+            }
+
+            Request request = new Request(nextSequence(pending), System.nanoTime(), timeout * 1000000, reply);
+            pending.add(request);
+            mPendingCount++;
+            return request.sequence;
+        }
+    }
+
+    /**
+     * Stop tracking a request without notifying it, e.g. when it couldn't be sent
+     *
+     * @param action
+     * @param sequence
+     */
+    public void cancel(byte action, int sequence) {
+        synchronized (mLock) {
+            ArrayDeque<Request> pending = mPending[action & 0xFF];
+            Request request = (pending == null) ? null : find(pending, sequence);
+            if (request != null) {
+                pending.remove(request);
+                mPendingCount--;
+            }
+        }
+    }
+
+    /**
+     * Complete the pending request a reply answers
+     *
+     * @param action
+     * @param sequence The sequence id echoed in the reply
+     * @param data     The reply, laid out as [command][action][sequence][data] starting at <code>offset</code>
+     * @param offset
+     * @param length   The full length of the reply, header included
+     * @return false if no request was waiting for this reply, e.g. it already expired
+     */
+    public boolean complete(byte action, int sequence, byte[] data, int offset, int length) {
+        Request request;
+        long latency;
+        synchronized (mLock) {
+            ArrayDeque<Request> pending = mPending[action & 0xFF];
+            request = (pending == null) ? null : find(pending, sequence);
+            if (request == null) {
+                mLateCount++;
+                return false;
+            }
+
+            pending.remove(request);
+            latency = System.nanoTime() - request.sentAt;
+            mPendingCount--;
+            mCompletedCount++;
+            mLastLatency = latency;
+            mTotalLatency += latency;
+            mMaxLatency = Math.max(mMaxLatency, latency);
+        }
+
+        request.reply.onReply(request.sequence, data, offset, length, latency);
+        return true;
+    }
+
+    /**
+     * Expire every request that outlived its deadline
+     *
+     * @return How long until the next deadline in milliseconds, or -1 if nothing is pending
+     */
+    public long expire() {
+        return expire(false);
+    }
+
+    /**
+     * Expire every pending request, e.g. after the device went away
+     */
+    public void expireAll() {
+        expire(true);
+    }
+
+    /**
+     * @return The number of requests waiting for a reply
+     */
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPendingCount;
+        }
+    }
+
+    /**
+     * @return The number of requests that got a reply
+     */
+    public long getCompletedCount() {
+        synchronized (mLock) {
+            return mCompletedCount;
+        }
+    }
+
+    /**
+     * @return The number of requests that never got a reply
+     */
+    public long getExpiredCount() {
+        synchronized (mLock) {
+            return mExpiredCount;
+        }
+    }
+
+    /**
+     * @return The number of replies that arrived after their request expired
+     */
+    public long getLateCount() {
+        synchronized (mLock) {
+            return mLateCount;
+        }
+    }
+
+    /**
+     * @return How long the last completed request waited for its reply, in nanoseconds
+     */
+    public long getLastLatency() {
+        synchronized (mLock) {
+            return mLastLatency;
+        }
+    }
+
+    /**
+     * @return The longest wait for a reply, in nanoseconds
+     */
+    public long getMaxLatency() {
+        synchronized (mLock) {
+            return mMaxLatency;
+        }
+    }
+
+    /**
+     * @return The average wait for a reply, in nanoseconds
+     */
+    public long getAverageLatency() {
+        synchronized (mLock) {
+            return (mCompletedCount == 0) ? 0 : mTotalLatency / mCompletedCount;
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Pick the next sequence id, skipping {@link ADK#NO_SEQUENCE} and ids still pending for the same action
+     *
+     * @param pending The pending requests of the action
+     * @return 1-255
+     */
+    private int nextSequence(ArrayDeque<Request> pending) {
+        int sequence;
+        do {
+            sequence = mNextSequence;
+            mNextSequence = (sequence == ADK.MAX_SEQUENCE) ? ADK.NO_SEQUENCE + 1 : sequence + 1;
+        } while (find(pending, sequence) != null && pending.size() < ADK.MAX_SEQUENCE);
+
+        return sequence;
+    }
+
+    /**
+     * @param pending
+     * @param sequence
+     * @return The pending request with the given sequence id, or null
+     */
+    private static Request find(ArrayDeque<Request> pending, int sequence) {
+        for (Request request : pending) {
+            if (request.sequence == sequence) {
+                return request;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Remove expired requests and notify them outside the lock
+     *
+     * @param all Expire everything regardless of the deadlines
+     * @return How long until the next deadline in milliseconds, or -1 if nothing is pending
+     */
+    private long expire(boolean all) {
+        List<Request> expired = null;
+        long next = Long.MAX_VALUE;
+        synchronized (mLock) {
+            long now = System.nanoTime();
+            for (ArrayDeque<Request> pending : mPending) {
+                if (pending == null) {
+                    continue;
+                }
+
+                // requests of an action don't necessarily share a timeout, check them all
+                for (Iterator<Request> it = pending.iterator(); it.hasNext(); ) {
+                    Request request = it.next();
+                    long left = request.sentAt + request.timeout - now;
+                    if (all || left <= 0) {
+                        it.remove();
+                        if (expired == null) {
+                            expired = new ArrayList<Request>();
+                        }
+
+                        expired.add(request);
+                    } else {
+                        next = Math.min(next, left);
+                    }
+                }
+            }
+
+            if (expired != null) {
+                mPendingCount -= expired.size();
+                mExpiredCount += expired.size();
+            }
+        }
+
+        if (expired != null) {
+            for (Request request : expired) {
+                request.reply.onExpired(request.sequence);
+            }
+        }
+
+        return (next == Long.MAX_VALUE) ? -1 : next / 1000000 + 1;
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    private static class Request {
+        final int sequence;
+        final long sentAt;
+        final long timeout;
+        final Reply reply;
+
+        Request(int sequence, long sentAt, long timeout, Reply reply) {
+            this.sequence = sequence;
+            this.sentAt = sentAt;
+            this.timeout = timeout;
+            this.reply = reply;
+        }
+    }
+
+    public interface Reply {
+        /**
+         * Invoked on the ADK communication thread when the reply arrives. <br/>
+         * <code>data</code> is reused once this call returns, copy anything that needs to outlive it
+         *
+         * @param sequence The sequence id of the request
+         * @param data
+         * @param offset   Where the reply starts in <code>data</code>
+         * @param length   The full length of the reply, header included
+         * @param latency  How long the reply took, in nanoseconds
+         */
+        void onReply(int sequence, byte[] data, int offset, int length, long latency);
+
+        /**
+         * Invoked when no reply arrived in time, or the device went away before it did
+         *
+         * @param sequence The sequence id of the request
+         */
+        void onExpired(int sequence);
+    }
+}
@@ -24,6 +24,11 @@ public class Utils {
     }
 
     public static float bytesToFloat(byte bytes[], int offset) {
-        return ByteBuffer.wrap(bytes, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        // called for every telemetry sample, decode the little endian bits without wrapping the array
+        int bits = (bytes[offset] & 0xFF)
+                | ((bytes[offset + 1] & 0xFF) << 8)
+                | ((bytes[offset + 2] & 0xFF) << 16)
+                | ((bytes[offset + 3] & 0xFF) << 24);
+        return Float.intBitsToFloat(bits);
     }
 }
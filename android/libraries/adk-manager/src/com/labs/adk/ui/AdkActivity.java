@@ -100,7 +100,7 @@ public abstract class AdkActivity extends Activity implements Callback {
     }
 
     @Override
-    public void onDataReceived(int command, byte[] data, int dataLength) {
+    public void onDataReceived(int command, byte[] data, int offset, int length) {
 
     }
 }
@@ -24,10 +24,49 @@ public class ADK {
     public static final byte ACTION_TILT = 6;
     public static final byte ACTION_CALIBRATE_TILT = 7;
     public static final byte ACTION_TILT_OFFSET = 8;
+    // the device pushes ACTION_TILT_STREAM responses at the requested rate until unsubscribed, data: [samples per second]
+    public static final byte ACTION_SUBSCRIBE_TILT = 9;
+    public static final byte ACTION_UNSUBSCRIBE_TILT = 10;
+    public static final byte ACTION_TILT_STREAM = 11;
+
+    // adk-frame, commands sent to the device: [command][action][data length][data]
+    // COMMAND_GET data starts with a sequence id, which the device echoes in its reply
+    public static final int HEADER_SIZE = 3;
+    public static final int MAX_DATA_LENGTH = 255;
+    public static final int MAX_FRAME_SIZE = HEADER_SIZE + MAX_DATA_LENGTH;
+
+    // adk-response, replies of the device: [command][action][sequence][data], the length is implied by the action
+    public static final int RESPONSE_HEADER_SIZE = 3;
+    public static final int NO_SEQUENCE = 0; // untracked get requests and responses the device sends on its own
+    public static final int MAX_SEQUENCE = 255;
+    public static final int TILT_RESPONSE_SIZE = RESPONSE_HEADER_SIZE + 12; // pitch, roll, yaw floats
+    public static final int TUNE_RESPONSE_SIZE = RESPONSE_HEADER_SIZE + 36; // Kp, Ki, Kd floats of pitch, roll, yaw
 
     ///////////////////////////////////////////////
     // Public
     ///////////////////////////////////////////////
+    /**
+     * Get the full length of a {@link #COMMAND_RESPONSE} reply
+     *
+     * @param action
+     * @return The length of the reply, header included, or -1 if the device never replies with this action
+     */
+    public static int getResponseLength(byte action) {
+        switch (action) {
+            case ACTION_TILT:
+            case ACTION_TILT_OFFSET:
+            case ACTION_CALIBRATE_TILT:
+            case ACTION_TILT_STREAM:
+                return TILT_RESPONSE_SIZE;
+
+            case ACTION_TUNE:
+                return TUNE_RESPONSE_SIZE;
+
+            default:
+                return -1;
+        }
+    }
+
     public static String parseCommand(byte command) {
         switch (command) {
             case COMMAND_CONTROL:
@@ -76,6 +115,15 @@ public class ADK {
             case ACTION_RIGHT_STICK:
                 return "Right Stick";
 
+            case ACTION_SUBSCRIBE_TILT:
+                return "Subscribe Tilt";
+
+            case ACTION_UNSUBSCRIBE_TILT:
+                return "Unsubscribe Tilt";
+
+            case ACTION_TILT_STREAM:
+                return "Tilt Stream";
+
             default:
                 return "Unknown";
         }
@@ -0,0 +1,120 @@
+package com.labs.commons;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size in-memory log sink used by {@link SLog}. <br/>
+ * Writers claim a slot with a single atomic increment and never block each other. Messages are recorded already
+ * formatted, so the buffer never holds on to the caller's arguments and a dump shows them as they were when logged.
+ * When the buffer is full the oldest messages are overwritten.
+ *
+ * @author Amir Lazarovich
+ */
+class LogRingBuffer {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Entry[] mEntries;
+    private final int mMask;
+    private final AtomicLong mSequence;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param capacity Rounded up to the next power of two
+     */
+    LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mEntries = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            mEntries[i] = new Entry();
+        }
+
+        mMask = size - 1;
+        mSequence = new AtomicLong();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Record a message
+     *
+     * @param type
+     * @param tag
+     * @param message The formatted message
+     * @param e
+     */
+    void add(SLog.Type type, String tag, String message, Throwable e) {
+        long sequence = mSequence.getAndIncrement();
+        Entry entry = mEntries[(int) (sequence & mMask)];
+
+        // mark the entry as being written so a concurrent dump skips it
+        entry.mSequence = -1;
+        entry.mTime = System.currentTimeMillis();
+        entry.mType = type;
+        entry.mTag = tag;
+        entry.mMessage = message;
+        entry.mError = (e == null) ? null : e.toString();
+        entry.mSequence = sequence;
+    }
+
+    /**
+     * Write every message currently in the buffer, oldest first
+     *
+     * @param out
+     */
+    void dump(StringBuilder out) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        long end = mSequence.get();
+        long start = Math.max(0, end - mEntries.length);
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = mEntries[(int) (sequence & mMask)];
+            if (entry.mSequence != sequence) {
+                continue;
+            }
+
+            long time = entry.mTime;
+            SLog.Type type = entry.mType;
+            String tag = entry.mTag;
+            String message = entry.mMessage;
+            String error = entry.mError;
+            if (entry.mSequence != sequence) {
+                // overwritten while reading
+                continue;
+            }
+
+            out.append(dateFormat.format(new Date(time)))
+                    .append(' ')
+                    .append(type.name().charAt(0))
+                    .append('/')
+                    .append(tag)
+                    .append(": ")
+                    .append(message);
+            if (error != null) {
+                out.append(" (").append(error).append(')');
+            }
+
+            out.append('\n');
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    private static class Entry {
+        volatile long mSequence = -1;
+        long mTime;
+        SLog.Type mType;
+        String mTag;
+        String mMessage;
+        String mError;
+    }
+}
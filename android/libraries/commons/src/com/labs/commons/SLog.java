@@ -2,196 +2,314 @@ package com.labs.commons;
 
 import android.util.Log;
 
+import java.util.IllegalFormatException;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Wrapper class for {@link android.util.Log}.<br/>
  * The reason there are so many overloading methods is to minimize the use of the Argument parameter method (the one with the three dots). <br/>
  * What happens behind the scene when calling such methods is an instantiation of a new array of objects which may be a huge waste if the application
- * calls this class often
+ * calls this class often<br/>
+ * The level of each tag is checked before anything gets formatted. Hot paths should also check {@link #isLoggable(String, Type)}
+ * before logging primitives, since boxing them happens before any of these methods is called.<br/>
+ * Messages can also be recorded in memory with {@link #enableRingBuffer(int, Type)}, even in release builds. The ring has
+ * a level of its own, so recording warnings in a release build doesn't turn the debug hot paths back on.
  *
  * @author Amir Lazarovich
  */
 public class SLog {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int ARGS_ARRAY = -1;
+
     ///////////////////////////////////////////////
     // Members
     ///////////////////////////////////////////////
-    private enum Type {
+    public enum Type {
         DEBUG,
         INFO,
         WARN,
         ERROR
     }
 
+    private static final ConcurrentHashMap<String, Type> sLevels = new ConcurrentHashMap<String, Type>();
+    private static volatile Type sDefaultLevel = Type.DEBUG;
+    private static volatile LogRingBuffer sRingBuffer;
+    private static volatile Type sRingLevel = Type.INFO;
+
     ///////////////////////////////////////////////
     // Public
     ///////////////////////////////////////////////
     public static void d(String tag, String msg) {
-        if (!BuildConfig.DEBUG || msg == null) {
+        if (msg == null || !isLoggable(tag, Type.DEBUG)) {
             return;
         }
 
-       log(Type.DEBUG, tag, msg, null);
+        log(Type.DEBUG, tag, msg, 0, null, null, null, null, null);
     }
 
     public static void d(String tag, String formattedMessage, Object arg1) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.DEBUG)) {
             return;
         }
 
-        log(Type.DEBUG, tag, String.format(formattedMessage, arg1), null);
+        log(Type.DEBUG, tag, formattedMessage, 1, arg1, null, null, null, null);
     }
 
     public static void d(String tag, String formattedMessage, Object arg1, Object arg2) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.DEBUG)) {
             return;
         }
 
-        log(Type.DEBUG, tag, String.format(formattedMessage, arg1, arg2), null);
+        log(Type.DEBUG, tag, formattedMessage, 2, arg1, arg2, null, null, null);
     }
 
     public static void d(String tag, String formattedMessage, Object arg1, Object arg2, Object arg3) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.DEBUG)) {
             return;
         }
 
-        log(Type.DEBUG, tag, String.format(formattedMessage, arg1, arg2, arg3), null);
+        log(Type.DEBUG, tag, formattedMessage, 3, arg1, arg2, arg3, null, null);
     }
 
     public static void d(String tag, String formattedMessage, Object... args) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.DEBUG)) {
             return;
         }
 
-        log(Type.DEBUG, tag, String.format(formattedMessage, args), null);
+        log(Type.DEBUG, tag, formattedMessage, ARGS_ARRAY, null, null, null, args, null);
     }
 
     public static void i(String tag, String msg) {
-        if (!BuildConfig.DEBUG || msg == null) {
+        if (msg == null || !isLoggable(tag, Type.INFO)) {
             return;
         }
 
-        log(Type.INFO, tag, msg, null);
+        log(Type.INFO, tag, msg, 0, null, null, null, null, null);
     }
 
     public static void i(String tag, String formattedMessage, Object arg1) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.INFO)) {
             return;
         }
 
-        log(Type.INFO, tag, String.format(formattedMessage, arg1), null);
+        log(Type.INFO, tag, formattedMessage, 1, arg1, null, null, null, null);
     }
 
     public static void i(String tag, String formattedMessage, Object arg1, Object arg2) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.INFO)) {
             return;
         }
 
-        log(Type.INFO, tag, String.format(formattedMessage, arg1, arg2), null);
+        log(Type.INFO, tag, formattedMessage, 2, arg1, arg2, null, null, null);
     }
 
     public static void i(String tag, String formattedMessage, Object arg1, Object arg2, Object arg3) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.INFO)) {
             return;
         }
 
-        log(Type.INFO, tag, String.format(formattedMessage, arg1, arg2, arg3), null);
+        log(Type.INFO, tag, formattedMessage, 3, arg1, arg2, arg3, null, null);
     }
 
     public static void i(String tag, String formattedMessage, Object... args) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.INFO)) {
             return;
         }
 
-        log(Type.INFO, tag, String.format(formattedMessage, args), null);
+        log(Type.INFO, tag, formattedMessage, ARGS_ARRAY, null, null, null, args, null);
     }
 
     public static void w(String tag, String msg) {
-        if (!BuildConfig.DEBUG || msg == null) {
+        if (msg == null || !isLoggable(tag, Type.WARN)) {
             return;
         }
 
-        log(Type.WARN, tag, msg, null);
+        log(Type.WARN, tag, msg, 0, null, null, null, null, null);
     }
 
     public static void w(String tag, String formattedMessage, Object arg1) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.WARN)) {
             return;
         }
 
-        log(Type.WARN, tag, String.format(formattedMessage, arg1), null);
+        log(Type.WARN, tag, formattedMessage, 1, arg1, null, null, null, null);
     }
 
     public static void w(String tag, String formattedMessage, Object arg1, Object arg2) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.WARN)) {
             return;
         }
 
-        log(Type.WARN, tag, String.format(formattedMessage, arg1, arg2), null);
+        log(Type.WARN, tag, formattedMessage, 2, arg1, arg2, null, null, null);
     }
 
     public static void w(String tag, String formattedMessage, Object arg1, Object arg2, Object arg3) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.WARN)) {
             return;
         }
 
-        log(Type.WARN, tag, String.format(formattedMessage, arg1, arg2, arg3), null);
+        log(Type.WARN, tag, formattedMessage, 3, arg1, arg2, arg3, null, null);
     }
 
     public static void w(String tag, String formattedMessage, Object... args) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.WARN)) {
             return;
         }
 
-        log(Type.WARN, tag, String.format(formattedMessage, args), null);
+        log(Type.WARN, tag, formattedMessage, ARGS_ARRAY, null, null, null, args, null);
     }
 
     public static void e(String tag, String msg, Throwable e) {
-        if (!BuildConfig.DEBUG || msg == null) {
+        if (msg == null || !isLoggable(tag, Type.ERROR)) {
             return;
         }
 
-        log(Type.ERROR, tag, msg, e);
+        log(Type.ERROR, tag, msg, 0, null, null, null, null, e);
     }
 
     public static void e(String tag, Throwable e, String formattedMessage, Object arg1) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.ERROR)) {
             return;
         }
 
-        log(Type.ERROR, tag, String.format(formattedMessage, arg1), e);
+        log(Type.ERROR, tag, formattedMessage, 1, arg1, null, null, null, e);
     }
 
     public static void e(String tag, Throwable e, String formattedMessage, Object arg1, Object arg2) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.ERROR)) {
             return;
         }
 
-        log(Type.ERROR, tag, String.format(formattedMessage, arg1, arg2), e);
+        log(Type.ERROR, tag, formattedMessage, 2, arg1, arg2, null, null, e);
     }
 
     public static void e(String tag, Throwable e, String formattedMessage, Object arg1, Object arg2, Object arg3) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.ERROR)) {
             return;
         }
 
-        log(Type.ERROR, tag, String.format(formattedMessage, arg1, arg2, arg3), e);
+        log(Type.ERROR, tag, formattedMessage, 3, arg1, arg2, arg3, null, e);
     }
 
     public static void e(String tag, Throwable e, String formattedMessage, Object... args) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, Type.ERROR)) {
             return;
         }
 
-        log(Type.ERROR, tag, String.format(formattedMessage, args), e);
+        log(Type.ERROR, tag, formattedMessage, ARGS_ARRAY, null, null, null, args, e);
     }
 
     public static boolean isEnabled() {
         return BuildConfig.DEBUG;
     }
 
+    /**
+     * Check whether a message of the given type would be logged for <code>tag</code>.
+     * Use it to guard hot paths so arguments aren't even boxed when they're going to be ignored
+     *
+     * @param tag
+     * @param type
+     * @return
+     */
+    public static boolean isLoggable(String tag, Type type) {
+        if (!BuildConfig.DEBUG && (sRingBuffer == null || type.ordinal() < sRingLevel.ordinal())) {
+            // release builds only record, and only what the ring wants
+            return false;
+        }
+
+        Type level = (tag == null) ? null : sLevels.get(tag);
+        return type.ordinal() >= ((level == null) ? sDefaultLevel : level).ordinal();
+    }
+
+    /**
+     * Set the minimal type of messages logged for <code>tag</code>
+     *
+     * @param tag
+     * @param level
+     */
+    public static void setLevel(String tag, Type level) {
+        sLevels.put(tag, level);
+    }
+
+    /**
+     * Set the minimal type of messages logged for tags that don't have their own level
+     *
+     * @param level
+     */
+    public static void setDefaultLevel(Type level) {
+        sDefaultLevel = level;
+    }
+
+    /**
+     * Start recording messages of type {@link Type#INFO} and above in memory, in release builds as well
+     *
+     * @param capacity The number of messages kept, older ones are overwritten
+     */
+    public static void enableRingBuffer(int capacity) {
+        enableRingBuffer(capacity, Type.INFO);
+    }
+
+    /**
+     * Start recording messages in memory, in release builds as well
+     *
+     * @param capacity The number of messages kept, older ones are overwritten
+     * @param level    The minimal type of messages recorded
+     */
+    public static void enableRingBuffer(int capacity, Type level) {
+        sRingLevel = level;
+        sRingBuffer = new LogRingBuffer(capacity);
+    }
+
+    /**
+     * Stop recording messages in memory and drop the recorded ones
+     */
+    public static void disableRingBuffer() {
+        sRingBuffer = null;
+    }
+
+    /**
+     * Format every message recorded in memory, oldest first
+     *
+     * @return An empty string if recording isn't enabled
+     */
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        LogRingBuffer ringBuffer = sRingBuffer;
+        if (ringBuffer != null) {
+            ringBuffer.dump(builder);
+        }
+
+        return builder.toString();
+    }
+
     ///////////////////////////////////////////////
     // Private
     ///////////////////////////////////////////////
-    private static void log(Type type, String tag, String msg, Throwable e) {
+    private static void log(Type type, String tag, String msg, int argCount,
+                            Object arg1, Object arg2, Object arg3, Object[] args, Throwable e) {
+        LogRingBuffer ringBuffer = sRingBuffer;
+        boolean record = ringBuffer != null && type.ordinal() >= sRingLevel.ordinal();
+        if (!BuildConfig.DEBUG) {
+            if (record) {
+                // format right away, the arguments may change or be large and the ring outlives the call
+                try {
+                    msg = format(msg, argCount, arg1, arg2, arg3, args);
+                } catch (IllegalFormatException ignored) {
+                    // keep the raw format string, a broken message must not break a release build
+                }
+
+                ringBuffer.add(type, tag, msg, e);
+            }
+            return;
+        }
+
+        msg = format(msg, argCount, arg1, arg2, arg3, args);
+        if (record) {
+            ringBuffer.add(type, tag, msg, e);
+        }
+
         switch (type) {
              case DEBUG:
                  Log.d(tag, msg);
@@ -214,4 +332,23 @@ public class SLog {
                 break;
         }
     }
+
+    private static String format(String msg, int argCount, Object arg1, Object arg2, Object arg3, Object[] args) {
+        switch (argCount) {
+            case 0:
+                return msg;
+
+            case 1:
+                return String.format(msg, arg1);
+
+            case 2:
+                return String.format(msg, arg1, arg2);
+
+            case 3:
+                return String.format(msg, arg1, arg2, arg3);
+
+            default:
+                return String.format(msg, args);
+        }
+    }
 }
@@ -0,0 +1,273 @@
+/*
+ * socket.io-java-client AckRegistry.java
+ *
+ * Copyright (c) 2012, Enno Boland
+ * socket.io-java-client is a implementation of the socket.io protocol in Java.
+ *
+ * See LICENSE file for more information
+ */
+package io.socket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The acknowledges an {@link IOConnection} is waiting for. Every entry has a
+ * deadline, entries the server doesn't acknowledge in time are expired, so
+ * unanswered emits don't pile up for the life of the connection. Ids aren't
+ * boxed, see {@link IntMap}. Also records how long the server took to
+ * acknowledge.
+ */
+public class AckRegistry {
+
+	/** The acknowledges, by id. */
+	private final IntMap<Entry> entries = new IntMap<Entry>();
+
+	/** The next id to use. */
+	private int nextId = 1;
+
+	/** How long to wait for an acknowledge, in milliseconds. */
+	private long timeout;
+
+	/** The number of acknowledges received. */
+	private long completedCount;
+
+	/** The number of acknowledges that never came. */
+	private long expiredCount;
+
+	/** The last round trip, in nanoseconds. */
+	private long lastLatency;
+
+	/** The longest round trip, in nanoseconds. */
+	private long maxLatency;
+
+	/** The sum of all round trips, in nanoseconds. */
+	private long totalLatency;
+
+	/**
+	 * Instantiates a new registry.
+	 *
+	 * @param timeout
+	 *            how long to wait for an acknowledge, in milliseconds
+	 */
+	AckRegistry(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Registers an acknowledge.
+	 *
+	 * @param ack
+	 *            the acknowledge
+	 * @return the id to send along with the message
+	 */
+	synchronized int register(IOAcknowledge ack) {
+		return register(ack, timeout);
+	}
+
+	/**
+	 * Registers an acknowledge with its own timeout.
+	 *
+	 * @param ack
+	 *            the acknowledge
+	 * @param timeout
+	 *            how long to wait for it, in milliseconds
+	 * @return the id to send along with the message
+	 */
+	synchronized int register(IOAcknowledge ack, long timeout) {
+		int id = nextId++;
+		if (nextId <= 0)
+			nextId = 1;
+		entries.put(id, new Entry(id, ack, System.nanoTime(), timeout * 1000000));
+		return id;
+	}
+
+	/**
+	 * Removes the acknowledge of an id the server acknowledged.
+	 *
+	 * @param id
+	 *            the id
+	 * @return the acknowledge, or null if it's unknown or already expired
+	 */
+	synchronized IOAcknowledge complete(int id) {
+		Entry entry = entries.remove(id);
+		if (entry == null)
+			return null;
+		long latency = System.nanoTime() - entry.sentAt;
+		completedCount++;
+		lastLatency = latency;
+		totalLatency += latency;
+		maxLatency = Math.max(maxLatency, latency);
+		return entry.ack;
+	}
+
+	/**
+	 * Removes the acknowledges that outlived their deadline.
+	 *
+	 * @param expired
+	 *            receives the removed acknowledges
+	 * @return how long until the next deadline in milliseconds, or -1 if
+	 *         nothing is pending
+	 */
+	synchronized long expire(List<IOAcknowledge> expired) {
+		return expire(expired, false);
+	}
+
+	/**
+	 * Removes all acknowledges, e.g. when the connection shuts down.
+	 *
+	 * @param expired
+	 *            receives the removed acknowledges
+	 */
+	synchronized void expireAll(List<IOAcknowledge> expired) {
+		expire(expired, true);
+	}
+
+	/**
+	 * Sets how long to wait for acknowledges registered from now on.
+	 *
+	 * @param timeout
+	 *            in milliseconds
+	 */
+	public synchronized void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Gets how long to wait for an acknowledge.
+	 *
+	 * @return in milliseconds
+	 */
+	public synchronized long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Gets the number of acknowledges waited for.
+	 *
+	 * @return the count
+	 */
+	public synchronized int getPendingCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of acknowledges received.
+	 *
+	 * @return the count
+	 */
+	public synchronized long getCompletedCount() {
+		return completedCount;
+	}
+
+	/**
+	 * Gets the number of acknowledges that never came.
+	 *
+	 * @return the count
+	 */
+	public synchronized long getExpiredCount() {
+		return expiredCount;
+	}
+
+	/**
+	 * Gets the last round trip of an acknowledged message.
+	 *
+	 * @return in nanoseconds
+	 */
+	public synchronized long getLastLatency() {
+		return lastLatency;
+	}
+
+	/**
+	 * Gets the longest round trip of an acknowledged message.
+	 *
+	 * @return in nanoseconds
+	 */
+	public synchronized long getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * Gets the average round trip of an acknowledged message.
+	 *
+	 * @return in nanoseconds
+	 */
+	public synchronized long getAverageLatency() {
+		return completedCount == 0 ? 0 : totalLatency / completedCount;
+	}
+
+	/**
+	 * Removes expired acknowledges. Must hold the lock.
+	 *
+	 * @param expired
+	 *            receives the removed acknowledges
+	 * @param all
+	 *            expire everything regardless of the deadlines
+	 * @return how long until the next deadline in milliseconds, or -1 if
+	 *         nothing is pending
+	 */
+	private long expire(List<IOAcknowledge> expired, boolean all) {
+		long now = System.nanoTime();
+		long next = Long.MAX_VALUE;
+		List<Entry> removed = null;
+		for (int i = 0; i < entries.capacity(); i++) {
+			Entry entry = entries.valueAt(i);
+			if (entry == null)
+				continue;
+			long left = entry.sentAt + entry.timeout - now;
+			if (all || left <= 0) {
+				if (removed == null)
+					removed = new ArrayList<Entry>();
+				removed.add(entry);
+			} else {
+				next = Math.min(next, left);
+			}
+		}
+		if (removed != null) {
+			// removing shifts entries around, so not while scanning
+			for (Entry entry : removed) {
+				entries.remove(entry.id);
+				expired.add(entry.ack);
+			}
+			expiredCount += removed.size();
+		}
+		return next == Long.MAX_VALUE ? -1 : next / 1000000 + 1;
+	}
+
+	/**
+	 * An acknowledge waited for.
+	 */
+	private static class Entry {
+
+		/** The id. */
+		final int id;
+
+		/** The acknowledge. */
+		final IOAcknowledge ack;
+
+		/** When the message was sent, in nanoseconds. */
+		final long sentAt;
+
+		/** How long to wait, in nanoseconds. */
+		final long timeout;
+
+		/**
+		 * Instantiates a new entry.
+		 *
+		 * @param id
+		 *            the id
+		 * @param ack
+		 *            the acknowledge
+		 * @param sentAt
+		 *            when the message was sent, in nanoseconds
+		 * @param timeout
+		 *            how long to wait, in nanoseconds
+		 */
+		Entry(int id, IOAcknowledge ack, long sentAt, long timeout) {
+			this.id = id;
+			this.ack = ack;
+			this.sentAt = sentAt;
+			this.timeout = timeout;
+		}
+	}
+}
@@ -0,0 +1,471 @@
+/*
+ * socket.io-java-client DeflateDraft.java
+ *
+ * Copyright (c) 2012, Enno Boland
+ * socket.io-java-client is a implementation of the socket.io protocol in Java.
+ *
+ * See LICENSE file for more information
+ */
+package io.socket;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.java_websocket.drafts.Draft_17;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.exceptions.InvalidHandshakeException;
+import org.java_websocket.exceptions.NotSendableException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.FramedataImpl1;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ClientHandshakeBuilder;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.util.Charsetfunctions;
+
+/**
+ * A {@link Draft_17} that offers the permessage-deflate extension (RFC 7692)
+ * and compresses text messages once the server accepted it. Messages below
+ * a size threshold stay raw, deflating them doesn't pay for itself.
+ *
+ * The compressor keeps its sliding window across messages where the
+ * platform can sync flush a {@link Deflater}, so repetitive messages shrink
+ * to a few bytes. Elsewhere every message is compressed on its own and the
+ * server is told so with client_no_context_takeover. A server that doesn't
+ * know the extension simply ignores the offer and every frame stays raw.
+ */
+class DeflateDraft extends Draft_17 {
+
+	/** The logger. */
+	private static final Logger logger = Logger.getLogger("io.socket");
+
+	/** The extension name. */
+	private static final String EXTENSION = "permessage-deflate";
+
+	/** The extensions header. */
+	private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+	/** The default size under which messages stay raw, in bytes. */
+	public static final int DEFAULT_THRESHOLD = 32;
+
+	/** The RSV1 bit of the first frame byte, set on compressed messages. */
+	private static final int RSV1 = 0x40;
+
+	/** The empty stored block a sync flush ends with. */
+	private static final byte[] TAIL = { 0, 0, (byte) 0xff, (byte) 0xff };
+
+	/**
+	 * {@link Deflater#SYNC_FLUSH}, both the constant and the deflate overload
+	 * taking it are missing before Android API 19.
+	 */
+	private static final int SYNC_FLUSH = 2;
+
+	/** The sync flushing deflate method, null where it's missing. */
+	private static final Method DEFLATE_SYNC = findDeflateSync();
+
+	/** The size under which messages stay raw. */
+	private final int threshold;
+
+	/** The compressor, null until the extension was negotiated. */
+	private Deflater deflater;
+
+	/** The decompressor, null until the extension was negotiated. */
+	private Inflater inflater;
+
+	/** Whether the compressor starts over with every message. */
+	private boolean deflaterNoContext;
+
+	/** Whether the decompressor starts over with every message. */
+	private boolean inflaterNoContext;
+
+	/** The output buffer of the compressor and decompressor. */
+	private final byte[] chunk = new byte[1024];
+
+	/** The opcode of the compressed fragmented message being received. */
+	private Framedata.Opcode fragmentOpcode;
+
+	/** The compressed fragments received so far. */
+	private ByteArrayOutputStream fragments;
+
+	/**
+	 * Instantiates a new deflate draft with the default threshold.
+	 */
+	public DeflateDraft() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Instantiates a new deflate draft.
+	 *
+	 * @param threshold
+	 *            the size under which messages stay raw, in bytes
+	 */
+	public DeflateDraft(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.java_websocket.drafts.Draft_17#postProcessHandshakeRequestAsClient
+	 * (org.java_websocket.handshake.ClientHandshakeBuilder)
+	 */
+	@Override
+	public ClientHandshakeBuilder postProcessHandshakeRequestAsClient(
+			ClientHandshakeBuilder request) {
+		super.postProcessHandshakeRequestAsClient(request);
+		request.put(EXTENSIONS_HEADER, DEFLATE_SYNC == null ? EXTENSION
+				+ "; client_no_context_takeover" : EXTENSION);
+		return request;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.java_websocket.drafts.Draft_10#acceptHandshakeAsClient(org.java_websocket
+	 * .handshake.ClientHandshake, org.java_websocket.handshake.ServerHandshake)
+	 */
+	@Override
+	public HandshakeState acceptHandshakeAsClient(ClientHandshake request,
+			ServerHandshake response) throws InvalidHandshakeException {
+		HandshakeState state = super.acceptHandshakeAsClient(request, response);
+		if (state == HandshakeState.MATCHED
+				&& response.hasFieldValue(EXTENSIONS_HEADER))
+			negotiate(response.getFieldValue(EXTENSIONS_HEADER));
+		return state;
+	}
+
+	/**
+	 * Enables compression if the server accepted the extension.
+	 *
+	 * @param extensions
+	 *            the extensions header of the server
+	 */
+	private synchronized void negotiate(String extensions) {
+		for (String extension : extensions.split(",")) {
+			String[] params = extension.split(";");
+			if (!EXTENSION.equalsIgnoreCase(params[0].trim()))
+				continue;
+			boolean clientNoContext = DEFLATE_SYNC == null;
+			boolean serverNoContext = false;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.equalsIgnoreCase("client_no_context_takeover"))
+					clientNoContext = true;
+				else if (param.equalsIgnoreCase("server_no_context_takeover"))
+					serverNoContext = true;
+			}
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			inflater = new Inflater(true);
+			deflaterNoContext = clientNoContext;
+			inflaterNoContext = serverNoContext;
+			logger.info("permessage-deflate enabled"
+					+ (clientNoContext ? " without context takeover" : ""));
+			return;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.java_websocket.drafts.Draft_10#createFrames(java.lang.String,
+	 * boolean)
+	 */
+	@Override
+	public List<Framedata> createFrames(String text, boolean mask) {
+		byte[] payload = Charsetfunctions.utf8Bytes(text);
+		ByteBuffer compressed = payload.length < threshold ? null
+				: compress(payload);
+		FramedataImpl1 frame;
+		try {
+			if (compressed == null) {
+				frame = new FramedataImpl1(Framedata.Opcode.TEXT);
+				frame.setPayload(ByteBuffer.wrap(payload));
+			} else {
+				frame = new CompressedFrame();
+				frame.setPayload(compressed);
+			}
+		} catch (InvalidDataException e) {
+			throw new NotSendableException(e);
+		}
+		frame.setFin(true);
+		frame.setTransferemasked(mask);
+		return Collections.<Framedata> singletonList(frame);
+	}
+
+	/**
+	 * Compresses a message.
+	 *
+	 * @param payload
+	 *            the message
+	 * @return the compressed message, or null if it's to be sent raw
+	 */
+	private synchronized ByteBuffer compress(byte[] payload) {
+		if (deflater == null)
+			return null;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				payload.length / 2 + 16);
+		deflater.setInput(payload);
+		if (deflaterNoContext) {
+			deflater.finish();
+			while (!deflater.finished())
+				out.write(chunk, 0, deflater.deflate(chunk));
+			// the message ends in a final block, a zero byte makes up for
+			// the empty stored block the receiver appends (RFC 7692 7.2.3.4)
+			out.write(0);
+			deflater.reset();
+			// nothing carries over to the next message, so a message that
+			// didn't shrink can go raw instead
+			return out.size() < payload.length ? ByteBuffer.wrap(out
+					.toByteArray()) : null;
+		}
+		int count;
+		do {
+			count = deflateSync(deflater, chunk);
+			out.write(chunk, 0, count);
+		} while (count == chunk.length);
+		// strip the empty stored block the sync flush ended with
+		return ByteBuffer.wrap(out.toByteArray(), 0, out.size() - TAIL.length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.java_websocket.drafts.Draft_10#createBinaryFrame(org.java_websocket
+	 * .framing.Framedata)
+	 */
+	@Override
+	public ByteBuffer createBinaryFrame(Framedata frame) {
+		ByteBuffer buffer = super.createBinaryFrame(frame);
+		if (frame instanceof CompressedFrame)
+			buffer.put(0, (byte) (buffer.get(0) | RSV1));
+		return buffer;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.java_websocket.drafts.Draft_10#translateSingleFrame(java.nio.ByteBuffer
+	 * )
+	 */
+	@Override
+	public Framedata translateSingleFrame(ByteBuffer buffer)
+			throws InvalidDataException {
+		int position = buffer.position();
+		byte head = buffer.remaining() > 0 ? buffer.get(position) : 0;
+		boolean deflated = (head & RSV1) != 0 && isEnabled();
+		if (deflated)
+			// Draft_10 refuses reserved bits, hide RSV1 from it
+			buffer.put(position, (byte) (head & ~RSV1));
+		Framedata frame;
+		try {
+			frame = super.translateSingleFrame(buffer);
+		} catch (InvalidDataException e) {
+			throw e;
+		} catch (Throwable e) {
+			// incomplete, the frame is parsed again once the rest arrived
+			if (deflated)
+				buffer.put(position, head);
+			throw DeflateDraft.<RuntimeException> rethrow(e);
+		}
+		if (!deflated)
+			return frame;
+		CompressedFrame compressed = new CompressedFrame();
+		compressed.setOptcode(frame.getOpcode());
+		compressed.setFin(frame.isFin());
+		compressed.setPayload(frame.getPayloadData());
+		return compressed;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.java_websocket.drafts.Draft_10#translateFrame(java.nio.ByteBuffer)
+	 */
+	@Override
+	public List<Framedata> translateFrame(ByteBuffer buffer)
+			throws InvalidDataException {
+		List<Framedata> frames = super.translateFrame(buffer);
+		if (!isEnabled())
+			return frames;
+		List<Framedata> result = new ArrayList<Framedata>(frames.size());
+		for (Framedata frame : frames) {
+			Framedata.Opcode opcode = frame.getOpcode();
+			if (frame instanceof CompressedFrame) {
+				if (frame.isFin()) {
+					result.add(inflated(opcode, frame.getPayloadData()));
+				} else {
+					fragmentOpcode = opcode;
+					fragments = new ByteArrayOutputStream();
+					append(fragments, frame.getPayloadData());
+				}
+			} else if (fragments != null
+					&& opcode == Framedata.Opcode.CONTINUOUS) {
+				// fragments of a compressed message are put together here,
+				// the socket would hand them on still compressed
+				append(fragments, frame.getPayloadData());
+				if (frame.isFin()) {
+					result.add(inflated(fragmentOpcode,
+							ByteBuffer.wrap(fragments.toByteArray())));
+					fragments = null;
+				}
+			} else {
+				result.add(frame);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Decompresses a message into a frame.
+	 *
+	 * @param opcode
+	 *            the opcode of the message
+	 * @param payload
+	 *            the compressed message
+	 * @return the frame
+	 * @throws InvalidDataException
+	 *             if the message doesn't inflate
+	 */
+	private synchronized Framedata inflated(Framedata.Opcode opcode,
+			ByteBuffer payload) throws InvalidDataException {
+		if (inflater == null)
+			throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR,
+					"compressed frame after close");
+		byte[] input = new byte[payload.remaining() + TAIL.length];
+		payload.get(input, 0, input.length - TAIL.length);
+		System.arraycopy(TAIL, 0, input, input.length - TAIL.length,
+				TAIL.length);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 4);
+		inflater.setInput(input);
+		try {
+			while (!inflater.needsInput() && !inflater.finished())
+				out.write(chunk, 0, inflater.inflate(chunk));
+		} catch (DataFormatException e) {
+			throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR,
+					e.getMessage());
+		}
+		if (inflaterNoContext || inflater.finished())
+			inflater.reset();
+		FramedataImpl1 frame = new FramedataImpl1(opcode);
+		frame.setFin(true);
+		frame.setPayload(ByteBuffer.wrap(out.toByteArray()));
+		return frame;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.java_websocket.drafts.Draft_10#reset()
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		synchronized (this) {
+			if (deflater != null) {
+				deflater.end();
+				deflater = null;
+			}
+			if (inflater != null) {
+				inflater.end();
+				inflater = null;
+			}
+			fragments = null;
+		}
+	}
+
+	/**
+	 * Checks if the extension was negotiated.
+	 *
+	 * @return true, if messages may be compressed
+	 */
+	public synchronized boolean isEnabled() {
+		return deflater != null;
+	}
+
+	/**
+	 * Appends a payload to a stream.
+	 *
+	 * @param out
+	 *            the stream
+	 * @param payload
+	 *            the payload
+	 */
+	private static void append(ByteArrayOutputStream out, ByteBuffer payload) {
+		byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Rethrows a throwable unchecked. Draft_10.IncompleteException can't be
+	 * named outside its package, yet has to reach Draft_10 unchanged.
+	 *
+	 * @param e
+	 *            the throwable
+	 * @return never returns
+	 * @throws T
+	 *             always
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends Throwable> T rethrow(Throwable e) throws T {
+		throw (T) e;
+	}
+
+	/**
+	 * Deflates with a sync flush.
+	 *
+	 * @param deflater
+	 *            the deflater
+	 * @param output
+	 *            the output buffer
+	 * @return the number of bytes written
+	 */
+	private static int deflateSync(Deflater deflater, byte[] output) {
+		try {
+			return (Integer) DEFLATE_SYNC.invoke(deflater, output, 0,
+					output.length, SYNC_FLUSH);
+		} catch (Exception e) {
+			throw new NotSendableException(e);
+		}
+	}
+
+	/**
+	 * Finds the sync flushing deflate method.
+	 *
+	 * @return the method, or null if the platform lacks it
+	 */
+	private static Method findDeflateSync() {
+		try {
+			return Deflater.class.getMethod("deflate", byte[].class,
+					int.class, int.class, int.class);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A frame of a compressed message.
+	 */
+	private static class CompressedFrame extends FramedataImpl1 {
+
+		/**
+		 * Instantiates a new compressed text frame.
+		 */
+		CompressedFrame() {
+			super(Framedata.Opcode.TEXT);
+		}
+	}
+}
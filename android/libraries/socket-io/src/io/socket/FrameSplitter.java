@@ -0,0 +1,200 @@
+/*
+ * socket.io-java-client FrameSplitter.java
+ *
+ * Copyright (c) 2012, Enno Boland
+ * socket.io-java-client is a implementation of the socket.io protocol in Java.
+ *
+ * See LICENSE file for more information
+ */
+package io.socket;
+
+/**
+ * Splits a socket.io payload into messages while it's being received. A
+ * payload is either a single message or a sequence of
+ * <code>&#xfffd;&lt;length&gt;&#xfffd;&lt;message&gt;</code> frames. The payload
+ * is walked in place and each message is handed out as soon as it is
+ * complete, so only the frame that is cut between two chunks is ever
+ * buffered. Not thread safe, a payload is fed from a single thread.
+ */
+class FrameSplitter {
+
+	/** Before the first character of a payload. */
+	private static final int STATE_START = 0;
+
+	/** Reading the length of a frame. */
+	private static final int STATE_LENGTH = 1;
+
+	/** Reading the message of a frame. */
+	private static final int STATE_MESSAGE = 2;
+
+	/** Expecting the delimiter that starts the next frame. */
+	private static final int STATE_DELIMITER = 3;
+
+	/** Reading a payload that isn't framed, it's a single message. */
+	private static final int STATE_PLAIN = 4;
+
+	/** The payload is malformed, the rest of it is skipped. */
+	private static final int STATE_GARBAGE = 5;
+
+	/** The delimiter around the length of a frame. */
+	private static final char DELIMITER = IOConnection.FRAME_DELIMITER.charAt(0);
+
+	/**
+	 * Receives the messages of a payload.
+	 */
+	interface Listener {
+
+		/**
+		 * Called for every complete message.
+		 *
+		 * @param message
+		 *            the message
+		 */
+		void onMessage(String message);
+
+		/**
+		 * Called once if the payload is malformed. No more messages are
+		 * reported for this payload.
+		 *
+		 * @param reason
+		 *            what was wrong
+		 */
+		void onGarbage(String reason);
+	}
+
+	/** The listener. */
+	private final Listener listener;
+
+	/** The part of the current message received in earlier chunks. */
+	private final StringBuilder pending = new StringBuilder();
+
+	/** The state. */
+	private int state = STATE_START;
+
+	/** The length of the current frame, or the digits read so far. */
+	private int length;
+
+	/**
+	 * Instantiates a new frame splitter.
+	 *
+	 * @param listener
+	 *            the listener
+	 */
+	public FrameSplitter(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Feeds the next chunk of the current payload.
+	 *
+	 * @param chunk
+	 *            the chunk
+	 * @param start
+	 *            the first character of the chunk
+	 * @param end
+	 *            the end of the chunk, exclusive
+	 */
+	public void feed(CharSequence chunk, int start, int end) {
+		int i = start;
+		while (i < end) {
+			switch (state) {
+			case STATE_START:
+				if (chunk.charAt(i) == DELIMITER) {
+					i++;
+					length = 0;
+					state = STATE_LENGTH;
+				} else {
+					state = STATE_PLAIN;
+				}
+				break;
+			case STATE_LENGTH:
+				char c = chunk.charAt(i++);
+				if (c == DELIMITER) {
+					if (length == 0)
+						garbage("Empty frame");
+					else
+						state = STATE_MESSAGE;
+				} else if (c >= '0' && c <= '9' && length < Integer.MAX_VALUE / 10) {
+					length = length * 10 + (c - '0');
+				} else {
+					garbage("Invalid frame length");
+				}
+				break;
+			case STATE_MESSAGE:
+				// Potential BUG: it is not defined if length is in bytes or
+				// characters. Assuming characters.
+				int missing = length - pending.length();
+				if (end - i < missing) {
+					pending.append(chunk, i, end);
+					i = end;
+					break;
+				}
+				String message;
+				if (pending.length() == 0) {
+					message = chunk.subSequence(i, i + missing).toString();
+				} else {
+					message = pending.append(chunk, i, i + missing).toString();
+					pending.setLength(0);
+				}
+				i += missing;
+				state = STATE_DELIMITER;
+				listener.onMessage(message);
+				break;
+			case STATE_DELIMITER:
+				if (chunk.charAt(i++) == DELIMITER) {
+					length = 0;
+					state = STATE_LENGTH;
+				} else {
+					garbage("Frame longer than its length");
+				}
+				break;
+			case STATE_PLAIN:
+				pending.append(chunk, i, end);
+				i = end;
+				break;
+			default:
+				i = end;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Ends the current payload. A single message payload is reported now, a
+	 * frame that was cut short is reported as garbage. The splitter is ready
+	 * for the next payload afterwards.
+	 */
+	public void end() {
+		if (state == STATE_PLAIN) {
+			String message = pending.toString();
+			reset();
+			listener.onMessage(message);
+			return;
+		}
+		boolean truncated = state == STATE_LENGTH || state == STATE_MESSAGE;
+		reset();
+		if (truncated)
+			listener.onGarbage("Payload ended inside a frame");
+	}
+
+	/**
+	 * Drops the current payload.
+	 */
+	public void reset() {
+		pending.setLength(0);
+		length = 0;
+		state = STATE_START;
+	}
+
+	/**
+	 * Reports a malformed payload and skips the rest of it.
+	 *
+	 * @param reason
+	 *            what was wrong
+	 */
+	private void garbage(String reason) {
+		pending.setLength(0);
+		state = STATE_GARBAGE;
+		listener.onGarbage(reason);
+	}
+}
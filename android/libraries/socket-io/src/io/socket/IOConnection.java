@@ -21,7 +21,16 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -51,8 +60,8 @@ class IOConnection implements IOCallback {
 	/** The Constant STATE_INVALID. */
 	private static final int STATE_INVALID = 6;
 
-	/** The state. */
-	private int state = STATE_INIT;
+	/** The state. Read on every send, so it's kept out of the monitor. */
+	private final AtomicInteger state = new AtomicInteger(STATE_INIT);
 
 	/** Socket.io path. */
 	public static final String SOCKET_IO_1 = "/socket.io/1/";
@@ -60,14 +69,23 @@ class IOConnection implements IOCallback {
 	/** The SSL socket factory for HTTPS connections */
 	private static SSLContext sslContext = null;
 
-	/** All available connections. */
-	private static HashMap<String, List<IOConnection>> connections = new HashMap<String, List<IOConnection>>();
+	/**
+	 * All available connections, by origin. The arrays are never modified,
+	 * they're replaced, so lookups don't lock.
+	 */
+	private static final ConcurrentHashMap<String, IOConnection[]> connections = new ConcurrentHashMap<String, IOConnection[]>();
+
+	/** A connection without sockets. */
+	private static final SocketIO[] NO_SOCKETS = new SocketIO[0];
+
+	/** Error reason sent by the server if it doesn't know the session. */
+	private static final String ERROR_NOT_HANDSHAKEN = "1";
 
 	/** The url for this connection. */
 	private URL url;
 
 	/** The transport for this connection. */
-	private IOTransport transport;
+	private volatile IOTransport transport;
 
 	/** The connection timeout. */
 	private int connectTimeout = 10000;
@@ -84,11 +102,62 @@ class IOConnection implements IOCallback {
 	/** The protocols supported by the server. */
 	private List<String> protocols;
 
-	/** The output buffer used to cache messages while (re-)connecting. */
-	private ConcurrentLinkedQueue<String> outputBuffer = new ConcurrentLinkedQueue<String>();
+	/**
+	 * true if the session wasn't negotiated by the last transport, the server
+	 * may reject it.
+	 */
+	private volatile boolean resumed;
+
+	/** The number of telemetry messages kept while (re-)connecting. */
+	public static final int TELEMETRY_CAPACITY = 64;
+
+	/** How long to wait for an acknowledge by default, in milliseconds. */
+	public static final long ACK_TIMEOUT = 30000;
+
+	/** How often to ping the server, in milliseconds. */
+	public static final long PING_INTERVAL = 5000;
+
+	/** How long to wait for a ping to be answered, in milliseconds. */
+	public static final long PING_TIMEOUT = 10000;
+
+	/** The event pings are sent as, the server answers with an ack. */
+	private static final String PING_MESSAGE = "{\"name\":\"ping\",\"args\":[]}";
+
+	/**
+	 * The outbound queue. Every message goes through it, it also caches
+	 * messages while (re-)connecting. Only the thread that holds
+	 * {@link #writing} takes messages out of it.
+	 */
+	private final OutboundBuffer outputBuffer = new OutboundBuffer(
+			TELEMETRY_CAPACITY);
+
+	/** true while a thread is draining {@link #outputBuffer}. */
+	private final AtomicBoolean writing = new AtomicBoolean();
+
+	/** The messages of the running drain, writer only. */
+	private final List<String> batch = new ArrayList<String>();
+
+	/** Splits framed payloads into messages as they arrive. */
+	private final FrameSplitter splitter = new FrameSplitter(
+			new FrameSplitter.Listener() {
+				@Override
+				public void onMessage(String message) {
+					transportMessage(message);
+				}
+
+				@Override
+				public void onGarbage(String reason) {
+					error(new SocketIOException("Garbage from server: "
+							+ reason));
+				}
+			});
 
-	/** The sockets of this connection. */
-	private HashMap<String, SocketIO> sockets = new HashMap<String, SocketIO>();
+	/**
+	 * The sockets of this connection, the endpoint table incoming messages
+	 * are dispatched by. Replaced on every (un)registration, never modified,
+	 * so the reader thread scans it without locking.
+	 */
+	private volatile SocketIO[] sockets = NO_SOCKETS;
 
 	/** Custom Request headers used while handshaking */
 	private Properties headers;
@@ -99,8 +168,19 @@ class IOConnection implements IOCallback {
 	 */
 	private SocketIO firstSocket = null;
 
-	/** The reconnect timer. IOConnect waits a second before trying to reconnect */
-	final private Timer backgroundTimer = new Timer("backgroundTimer");
+	/**
+	 * Runs heartbeat, reconnect and closing timeouts of all connections. One
+	 * daemon thread is shared instead of a timer thread per connection.
+	 */
+	private static final ScheduledExecutorService scheduler = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "IOConnection-scheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 
 	/** A String representation of {@link #url}. */
 	private String urlStr;
@@ -111,55 +191,198 @@ class IOConnection implements IOCallback {
 	 */
 	private Exception lastException;
 
-	/** The next ID to use. */
-	private int nextId = 1;
+	/** The acknowledges the server hasn't sent yet. */
+	private final AckRegistry acks = new AckRegistry(ACK_TIMEOUT);
+
+	/** The pending acknowledge timeout check. Null while none is pending. */
+	private ScheduledFuture<?> ackFuture;
+
+	/** When the pending acknowledge timeout check runs, in nanoseconds. */
+	private long ackDeadline;
 
-	/** Acknowledges. */
-	HashMap<Integer, IOAcknowledge> acknowledge = new HashMap<Integer, IOAcknowledge>();
+	/** The acknowledge timeout check. */
+	private final AckTimeoutTask ackTimeoutTask = new AckTimeoutTask();
+
+	/**
+	 * The Class AckTimeoutTask. Expires the acknowledges the server didn't
+	 * send in time, and runs again at the next deadline.
+	 */
+	private class AckTimeoutTask implements Runnable {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			synchronized (this) {
+				// a check brought forward may be pending instead of this one
+				if (System.nanoTime() - ackDeadline >= 0)
+					ackFuture = null;
+			}
+			List<IOAcknowledge> expired = new ArrayList<IOAcknowledge>();
+			long next = acks.expire(expired);
+			timeoutAcks(expired);
+			if (next >= 0)
+				scheduleAckTimeout(next);
+		}
+	}
 
 	/** true if there's already a keepalive in {@link #outputBuffer}. */
-	private boolean keepAliveInQueue;
+	private volatile boolean keepAliveInQueue;
+
+	/**
+	 * The time, in {@link System#nanoTime()}, by which the next message from
+	 * the server must arrive. Every incoming message just moves it forward.
+	 */
+	private volatile long heartbeatDeadline;
 
 	/**
-	 * The heartbeat timeout task. Only null before connection has been
+	 * The pending heartbeat check. Only null before connection has been
 	 * initialised.
 	 */
-	private HearbeatTimeoutTask heartbeatTimeoutTask;
+	private ScheduledFuture<?> heartbeatFuture;
+
+	/** The heartbeat check. */
+	private final HearbeatTimeoutTask heartbeatTimeoutTask = new HearbeatTimeoutTask();
 
 	/**
 	 * The Class HearbeatTimeoutTask. Handles dropping this IOConnection if no
-	 * heartbeat is received within life time.
+	 * heartbeat is received within life time. It runs when the deadline is
+	 * due and re-schedules itself if the deadline was moved in the meantime.
 	 */
-	private class HearbeatTimeoutTask extends TimerTask {
+	private class HearbeatTimeoutTask implements Runnable {
 
 		/*
 		 * (non-Javadoc)
 		 * 
-		 * @see java.util.TimerTask#run()
+		 * @see java.lang.Runnable#run()
 		 */
 		@Override
 		public void run() {
+			synchronized (IOConnection.this) {
+				if (getState() == STATE_INVALID)
+					return;
+				long remaining = heartbeatDeadline - System.nanoTime();
+				if (remaining > 0) {
+					heartbeatFuture = scheduler.schedule(this, remaining,
+							TimeUnit.NANOSECONDS);
+					return;
+				}
+				heartbeatFuture = null;
+			}
 			error(new SocketIOException(
 					"Timeout Error. No heartbeat from server within life time of the socket. closing.",
 					lastException));
 		}
 	}
 
-	/** The reconnect task. Null if no reconnection is in progress. */
-	private ReconnectTask reconnectTask = null;
+	/** The pending reconnect. Null if no reconnection is in progress. */
+	private ScheduledFuture<?> reconnectFuture = null;
+
+	/** The reconnect task. */
+	private final ReconnectTask reconnectTask = new ReconnectTask();
+
+	/** The round trips and heartbeat jitter of this connection. */
+	private final LinkQuality linkQuality = new LinkQuality();
+
+	/** The link quality listener. Null if none. */
+	private volatile LinkQuality.Listener linkListener;
+
+	/** The pending pings. Null until the first connect. */
+	private ScheduledFuture<?> pingFuture;
+
+	/** true while a ping waits for its answer. */
+	private final AtomicBoolean pingInFlight = new AtomicBoolean();
+
+	/** The ping task. */
+	private final PingTask pingTask = new PingTask();
+
+	/**
+	 * The Class PingTask. Sends a ping while the connection is ready, unless
+	 * the previous one wasn't answered yet.
+	 */
+	private class PingTask implements Runnable {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			if (getState() != STATE_READY
+					|| !pingInFlight.compareAndSet(false, true))
+				return;
+			IOMessage ping = new IOMessage(IOMessage.TYPE_EVENT, "",
+					PING_MESSAGE);
+			int id = acks.register(new PingAcknowledge(), PING_TIMEOUT);
+			ping.setId(id + "+");
+			scheduleAckTimeout(PING_TIMEOUT);
+			sendPlain(ping.toString());
+		}
+	}
+
+	/**
+	 * The Class PingAcknowledge. Times a ping. Called on the reader thread,
+	 * so the round trip doesn't include waiting for the callback lane.
+	 */
+	private class PingAcknowledge implements IOTimeoutAcknowledge {
+
+		/** When the ping was sent. */
+		private final long sentAt = System.nanoTime();
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see io.socket.IOAcknowledge#ack(java.lang.Object[])
+		 */
+		@Override
+		public void ack(Object... args) {
+			linkQuality.addRoundTrip(System.nanoTime() - sentAt);
+			pingDone();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see io.socket.IOTimeoutAcknowledge#timeout()
+		 */
+		@Override
+		public void timeout() {
+			if (getState() == STATE_INVALID)
+				return;
+			linkQuality.addLost();
+			pingDone();
+		}
+	}
+
+	/** Runs the callbacks off the transport thread. */
+	private final IODispatcher dispatcher = new IODispatcher();
+
+	/** Decides when to reconnect, and records how long it took. */
+	private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy(500,
+			30000, 10, 60000);
 
 	/**
 	 * The Class ReconnectTask. Handles reconnect attempts
 	 */
-	private class ReconnectTask extends TimerTask {
+	private class ReconnectTask implements Runnable {
 
 		/*
 		 * (non-Javadoc)
 		 * 
-		 * @see java.util.TimerTask#run()
+		 * @see java.lang.Runnable#run()
 		 */
 		@Override
 		public void run() {
+			if (isSessionExpired()) {
+				// don't offer the server a session it dropped already
+				rehandshake();
+				return;
+			}
+			resumed = true;
 			connectTransport();
 			if (!keepAliveInQueue) {
 				sendPlain("2::");
@@ -221,22 +444,57 @@ class IOConnection implements IOCallback {
 	 * @return a IOConnection object
 	 */
 	static public IOConnection register(String origin, SocketIO socket) {
-		List<IOConnection> list = connections.get(origin);
-		if (list == null) {
-			list = new LinkedList<IOConnection>();
-			connections.put(origin, list);
-		} else {
-			synchronized (list) {
-				for (IOConnection connection : list) {
-					if (connection.register(socket))
-						return connection;
-				}
+		IOConnection[] list = connections.get(origin);
+		if (list != null) {
+			for (IOConnection connection : list) {
+				if (connection.register(socket))
+					return connection;
 			}
 		}
 
 		IOConnection connection = new IOConnection(origin, socket);
-		list.add(connection);
-		return connection;
+		while (true) {
+			list = connections.get(origin);
+			if (list == null) {
+				if (connections.putIfAbsent(origin,
+						new IOConnection[] { connection }) == null)
+					return connection;
+			} else {
+				IOConnection[] grown = Arrays.copyOf(list, list.length + 1);
+				grown[list.length] = connection;
+				if (connections.replace(origin, list, grown))
+					return connection;
+			}
+		}
+	}
+
+	/**
+	 * Removes a connection from {@link #connections}.
+	 * 
+	 * @param origin
+	 *            the origin
+	 * @param connection
+	 *            the connection
+	 */
+	private static void removeConnection(String origin, IOConnection connection) {
+		while (true) {
+			IOConnection[] list = connections.get(origin);
+			int index = list == null ? -1 : Arrays.asList(list).indexOf(
+					connection);
+			if (index < 0)
+				return;
+			if (list.length == 1) {
+				if (connections.remove(origin, list))
+					return;
+			} else {
+				IOConnection[] shrunk = new IOConnection[list.length - 1];
+				System.arraycopy(list, 0, shrunk, 0, index);
+				System.arraycopy(list, index + 1, shrunk, index,
+						shrunk.length - index);
+				if (connections.replace(origin, list, shrunk))
+					return;
+			}
+		}
 	}
 
 	/**
@@ -249,9 +507,11 @@ class IOConnection implements IOCallback {
 	 */
 	public synchronized boolean register(SocketIO socket) {
 		String namespace = socket.getNamespace();
-		if (sockets.containsKey(namespace))
+		if (getState() == STATE_INVALID || getSocket(namespace) != null)
 			return false;
-		sockets.put(namespace, socket);
+		SocketIO[] grown = Arrays.copyOf(sockets, sockets.length + 1);
+		grown[sockets.length] = socket;
+		sockets = grown;
 		socket.setHeaders(headers);
 		IOMessage connect = new IOMessage(IOMessage.TYPE_CONNECT,
 				socket.getNamespace(), "");
@@ -268,10 +528,13 @@ class IOConnection implements IOCallback {
 	 */
 	public synchronized void unregister(SocketIO socket) {
 		sendPlain("0::" + socket.getNamespace());
-		sockets.remove(socket.getNamespace());
+		List<SocketIO> remaining = new ArrayList<SocketIO>(
+				Arrays.asList(sockets));
+		remaining.remove(socket);
+		sockets = remaining.toArray(NO_SOCKETS);
 		socket.getCallback().onDisconnect();
 
-		if (sockets.size() == 0) {
+		if (sockets.length == 0) {
 			cleanup();
 		}
 	}
@@ -309,11 +572,50 @@ class IOConnection implements IOCallback {
 			heartbeatTimeout = Long.parseLong(data[1]) * 1000;
 			closingTimeout = Long.parseLong(data[2]) * 1000;
 			protocols = Arrays.asList(data[3].split(","));
+			resumed = false;
 		} catch (Exception e) {
 			error(new SocketIOException("Error while handshaking", e));
 		}
 	}
 
+	/**
+	 * Checks if the server dropped the session by now. It closes a silent
+	 * transport after the heartbeat timeout and keeps the session for the
+	 * closing timeout after that, both counted from the last packet received.
+	 * 
+	 * @return true, if the session can't be resumed anymore
+	 */
+	private boolean isSessionExpired() {
+		return sessionId != null && System.nanoTime() - heartbeatDeadline >= 0;
+	}
+
+	/**
+	 * Drops a session the server rejected or dropped and handshakes a new
+	 * one. The sockets and the queued messages are kept.
+	 */
+	private void rehandshake() {
+		synchronized (this) {
+			if (getState() == STATE_INVALID)
+				return;
+			logger.info("Session " + sessionId + " is gone, handshaking");
+			sessionId = null;
+			invalidateTransport();
+			if (reconnectFuture != null) {
+				reconnectFuture.cancel(false);
+				reconnectFuture = null;
+			}
+			resumed = false;
+			if (firstSocket == null) {
+				firstSocket = getSocket("");
+				if (firstSocket == null && sockets.length > 0)
+					firstSocket = sockets[0];
+			}
+			resetTimeout();
+			setState(STATE_INIT);
+		}
+		new ConnectThread().start();
+	}
+
 	/**
 	 * Connect transport.
 	 */
@@ -334,7 +636,7 @@ class IOConnection implements IOCallback {
 	}
 
 	/**
-	 * Creates a new {@link io.socket.IOAcknowledge} instance which sends its arguments
+	 * Creates a new {@link io.socket.IORawAcknowledge} instance which sends its arguments
 	 * back to the server.
 	 * 
 	 * @param message
@@ -350,7 +652,7 @@ class IOConnection implements IOCallback {
 			_id = _id + "+";
 		final String id = _id;
 		final String endPoint = message.getEndpoint();
-		return new IOAcknowledge() {
+		return new IORawAcknowledge() {
 			@Override
 			public void ack(Object... args) {
 				JSONArray array = new JSONArray();
@@ -363,8 +665,13 @@ class IOConnection implements IOCallback {
 								e));
 					}
 				}
+				ackRaw(array.toString());
+			}
+
+			@Override
+			public void ackRaw(String jsonArgs) {
 				IOMessage ackMsg = new IOMessage(IOMessage.TYPE_ACK, endPoint,
-						id + array.toString());
+						id + jsonArgs);
 				sendPlain(ackMsg.toString());
 			}
 		};
@@ -380,9 +687,54 @@ class IOConnection implements IOCallback {
 	 */
 	private void synthesizeAck(IOMessage message, IOAcknowledge ack) {
 		if (ack != null) {
-			int id = nextId++;
-			acknowledge.put(id, ack);
+			int id = acks.register(ack);
 			message.setId(id + "+");
+			scheduleAckTimeout(acks.getTimeout());
+		}
+	}
+
+	/**
+	 * Schedules the acknowledge timeout check, unless one is pending already
+	 * that runs no later.
+	 * 
+	 * @param delay
+	 *            in milliseconds
+	 */
+	private void scheduleAckTimeout(long delay) {
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(delay);
+		synchronized (ackTimeoutTask) {
+			if (getState() == STATE_INVALID)
+				return;
+			if (ackFuture != null) {
+				if (deadline - ackDeadline >= 0)
+					return;
+				ackFuture.cancel(false);
+			}
+			ackDeadline = deadline;
+			ackFuture = scheduler.schedule(ackTimeoutTask, delay,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Tells the expired acknowledges that want to know.
+	 * 
+	 * @param expired
+	 *            the expired acknowledges
+	 */
+	private void timeoutAcks(List<IOAcknowledge> expired) {
+		if (expired.isEmpty())
+			return;
+		logger.warning(expired.size() + " acknowledges timed out");
+		for (final IOAcknowledge ack : expired) {
+			if (ack instanceof IOTimeoutAcknowledge)
+				dispatcher.dispatchCallback(new Runnable() {
+					@Override
+					public void run() {
+						((IOTimeoutAcknowledge) ack).timeout();
+					}
+				});
 		}
 	}
 
@@ -403,7 +755,7 @@ class IOConnection implements IOCallback {
 		}
 		firstSocket = socket;
 		headers = socket.getHeaders();
-		sockets.put(socket.getNamespace(), socket);
+		sockets = new SocketIO[] { socket };
 		new ConnectThread().start();
 	}
 
@@ -414,16 +766,30 @@ class IOConnection implements IOCallback {
 		setState(STATE_INVALID);
 		if (transport != null)
 			transport.disconnect();
-		sockets.clear();
-		synchronized (connections) {
-			List<IOConnection> con = connections.get(urlStr);
-			if (con != null && con.size() > 1)
-				con.remove(this);
-			else
-				connections.remove(urlStr);
-		}
+		sockets = NO_SOCKETS;
+		removeConnection(urlStr, this);
 		logger.info("Cleanup");
-		backgroundTimer.cancel();
+		if (heartbeatFuture != null) {
+			heartbeatFuture.cancel(false);
+			heartbeatFuture = null;
+		}
+		if (reconnectFuture != null) {
+			reconnectFuture.cancel(false);
+			reconnectFuture = null;
+		}
+		if (pingFuture != null) {
+			pingFuture.cancel(false);
+			pingFuture = null;
+		}
+		synchronized (ackTimeoutTask) {
+			if (ackFuture != null) {
+				ackFuture.cancel(false);
+				ackFuture = null;
+			}
+		}
+		List<IOAcknowledge> expired = new ArrayList<IOAcknowledge>();
+		acks.expireAll(expired);
+		timeoutAcks(expired);
 	}
 
 	/**
@@ -432,33 +798,116 @@ class IOConnection implements IOCallback {
 	 * @param e
 	 *            an exception
 	 */
-	private void error(SocketIOException e) {
-		for (SocketIO socket : sockets.values()) {
-			socket.getCallback().onError(e);
+	private void error(final SocketIOException e) {
+		for (SocketIO socket : sockets) {
+			final IOCallback callback = socket.getCallback();
+			dispatcher.dispatchCallback(new Runnable() {
+				@Override
+				public void run() {
+					callback.onError(e);
+				}
+			});
 		}
 		cleanup();
 	}
 
 	/**
-	 * Sends a plain message to the {@link IOTransport}.
+	 * Sends a plain message to the {@link IOTransport}. The message is queued
+	 * and sent right away if the transport is ready, otherwise it's sent once
+	 * the transport connects. Doesn't block on other senders.
 	 * 
 	 * @param text
 	 *            the Text to be send.
 	 */
-	private synchronized void sendPlain(String text) {
-		if (getState() == STATE_READY)
+	private void sendPlain(String text) {
+		outputBuffer.add(text);
+		flushOutputBuffer();
+	}
+
+	/**
+	 * Sends a telemetry message to the {@link IOTransport}. Like
+	 * {@link #sendPlain(String)}, but only the newest
+	 * {@link #TELEMETRY_CAPACITY} telemetry messages are kept while the
+	 * transport isn't ready, and they're sent after control messages.
+	 * 
+	 * @param text
+	 *            the Text to be send.
+	 */
+	private void sendTelemetry(String text) {
+		outputBuffer.addTelemetry(text);
+		flushOutputBuffer();
+	}
+
+	/**
+	 * Sends the queued messages if the transport is ready. If another thread
+	 * is already sending, it's left to that thread, which checks the queue
+	 * again before it stops. Control messages stay queued until they're sent,
+	 * telemetry that fails to send is dropped.
+	 */
+	private void flushOutputBuffer() {
+		while (getState() == STATE_READY && !outputBuffer.isEmpty()) {
+			if (!writing.compareAndSet(false, true))
+				return;
+			boolean failed = false;
+			List<String> texts = batch;
+			int controlCount = 0;
+			int sent = 0;
 			try {
-				logger.info("> " + text);
-				transport.send(text);
+				IOTransport transport = this.transport;
+				if (transport == null)
+					return;
+				controlCount = outputBuffer.drainTo(texts);
+				if (logger.isLoggable(Level.INFO)) {
+					logger.info("Bulk start:");
+					for (String text : texts) {
+						logger.info("> " + text);
+					}
+					logger.info("Bulk end");
+				}
+				if (transport.canSendBulk()) {
+					transport.sendBulk(texts.toArray(new String[texts.size()]));
+					transport.flush();
+					sent = texts.size();
+				} else {
+					for (String text : texts) {
+						transport.send(text);
+						sent++;
+					}
+					transport.flush();
+				}
 			} catch (Exception e) {
 				logger.info("IOEx: saving");
-				outputBuffer.add(text);
+				failed = true;
+			} finally {
+				outputBuffer.commit(Math.min(sent, controlCount));
+				outputBuffer.lost(texts.size() - Math.max(sent, controlCount));
+				texts.clear();
+				writing.set(false);
 			}
-		else {
-			outputBuffer.add(text);
+			if (failed)
+				return;
 		}
 	}
 
+	/**
+	 * Gets the number of messages waiting to be sent.
+	 * 
+	 * @return the queue depth
+	 */
+	public int getOutboundQueueDepth() {
+		return outputBuffer.size();
+	}
+
+	/**
+	 * Gets the number of telemetry messages dropped because the outbound
+	 * queue was full or the transport failed to send them.
+	 * 
+	 * @return the drop count
+	 */
+	public long getOutboundDropCount() {
+		return outputBuffer.getDroppedCount();
+	}
+
 	/**
 	 * Invalidates an {@link IOTransport}, used for forced reconnecting.
 	 */
@@ -469,19 +918,50 @@ class IOConnection implements IOCallback {
 	}
 
 	/**
-	 * Reset timeout.
+	 * Reset timeout. Called for every incoming message, so it only moves the
+	 * deadline forward. {@link HearbeatTimeoutTask} checks it when it's due.
 	 */
-	private synchronized void resetTimeout() {
-		if (heartbeatTimeoutTask != null) {
-			heartbeatTimeoutTask.cancel();
+	private void resetTimeout() {
+		heartbeatDeadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(closingTimeout
+						+ heartbeatTimeout);
+	}
+
+	/**
+	 * Starts checking the heartbeat deadline, unless it's already checked.
+	 */
+	private synchronized void startHeartbeatCheck() {
+		if (heartbeatFuture == null && getState() != STATE_INVALID) {
+			heartbeatFuture = scheduler.schedule(heartbeatTimeoutTask,
+					closingTimeout + heartbeatTimeout, TimeUnit.MILLISECONDS);
 		}
-		if (getState() != STATE_INVALID) {
-			heartbeatTimeoutTask = new HearbeatTimeoutTask();
-			backgroundTimer.schedule(heartbeatTimeoutTask, closingTimeout
-					+ heartbeatTimeout);
+	}
+
+	/**
+	 * Starts pinging the server, unless it's already going on.
+	 */
+	private synchronized void startPings() {
+		if (pingFuture == null && getState() != STATE_INVALID) {
+			pingFuture = scheduler.scheduleWithFixedDelay(pingTask, 0,
+					PING_INTERVAL, TimeUnit.MILLISECONDS);
 		}
 	}
 
+	/**
+	 * Lets the next ping go out and tells the link quality listener.
+	 */
+	private void pingDone() {
+		pingInFlight.set(false);
+		final LinkQuality.Listener listener = linkListener;
+		if (listener != null)
+			dispatcher.dispatchCallback(new Runnable() {
+				@Override
+				public void run() {
+					listener.onLinkQuality(linkQuality);
+				}
+			});
+	}
+
 	/**
 	 * finds the corresponding callback object to an incoming message. Returns a
 	 * dummy callback if no corresponding callback can be found
@@ -492,14 +972,29 @@ class IOConnection implements IOCallback {
 	 * @throws SocketIOException
 	 */
 	private IOCallback findCallback(IOMessage message) throws SocketIOException {
-		if ("".equals(message.getEndpoint()))
+		if (message.isEndpoint(""))
 			return this;
-		SocketIO socket = sockets.get(message.getEndpoint());
-		if (socket == null) {
-			throw new SocketIOException("Cannot find socket for '"
-					+ message.getEndpoint() + "'");
+		for (SocketIO socket : sockets) {
+			if (message.isEndpoint(socket.getNamespace()))
+				return socket.getCallback();
 		}
-		return socket.getCallback();
+		throw new SocketIOException("Cannot find socket for '"
+				+ message.getEndpoint() + "'");
+	}
+
+	/**
+	 * Finds the socket of a namespace.
+	 * 
+	 * @param namespace
+	 *            the namespace
+	 * @return the socket, or null if there's none
+	 */
+	private SocketIO getSocket(String namespace) {
+		for (SocketIO socket : sockets) {
+			if (socket.getNamespace().equals(namespace))
+				return socket;
+		}
+		return null;
 	}
 
 	/**
@@ -507,35 +1002,19 @@ class IOConnection implements IOCallback {
 	 * 
 	 * {@link IOTransport} calls this when a connection is established.
 	 */
-	public synchronized void transportConnected() {
+	public void transportConnected() {
 		setState(STATE_READY);
-		if (reconnectTask != null) {
-			reconnectTask.cancel();
-			reconnectTask = null;
-		}
-		resetTimeout();
-		if (transport.canSendBulk()) {
-			ConcurrentLinkedQueue<String> outputBuffer = this.outputBuffer;
-			this.outputBuffer = new ConcurrentLinkedQueue<String>();
-			try {
-				// DEBUG
-				String[] texts = outputBuffer.toArray(new String[outputBuffer
-						.size()]);
-				logger.info("Bulk start:");
-				for (String text : texts) {
-					logger.info("> " + text);
-				}
-				logger.info("Bulk end");
-				// DEBUG END
-				transport.sendBulk(texts);
-			} catch (IOException e) {
-				this.outputBuffer = outputBuffer;
+		reconnectPolicy.onConnected();
+		synchronized (this) {
+			if (reconnectFuture != null) {
+				reconnectFuture.cancel(false);
+				reconnectFuture = null;
 			}
-		} else {
-			String text;
-			while ((text = outputBuffer.poll()) != null)
-				sendPlain(text);
 		}
+		resetTimeout();
+		startHeartbeatCheck();
+		startPings();
+		flushOutputBuffer();
 		this.keepAliveInQueue = false;
 	}
 
@@ -547,7 +1026,7 @@ class IOConnection implements IOCallback {
 	public void transportDisconnected() {
 		this.lastException = null;
 		setState(STATE_INTERRUPTED);
-		reconnect();
+		reconnect(reconnectPolicy.nextDelay());
 	}
 
 	/**
@@ -560,7 +1039,7 @@ class IOConnection implements IOCallback {
 	public void transportError(Exception error) {
 		this.lastException = error;
 		setState(STATE_INTERRUPTED);
-		reconnect();
+		reconnect(reconnectPolicy.nextDelay());
 	}
 
 	/**
@@ -576,20 +1055,81 @@ class IOConnection implements IOCallback {
 			return;
 		}
 
-		Iterator<String> fragments = Arrays.asList(text.split(FRAME_DELIMITER))
-				.listIterator(1);
-		while (fragments.hasNext()) {
-			int length = Integer.parseInt(fragments.next());
-			String string = (String) fragments.next();
-			// Potential BUG: it is not defined if length is in bytes or
-			// characters. Assuming characters.
+		splitter.reset();
+		splitter.feed(text, 0, text.length());
+		splitter.end();
+	}
 
-			if (length != string.length()) {
-				error(new SocketIOException("Garbage from server: " + text));
-				return;
-			}
+	/**
+	 * {@link IOTransport} may call this function with a payload in chunks, as
+	 * it is being received. Each message is handled as soon as it is
+	 * complete, a frame may be cut between two chunks. The payload has to be
+	 * ended with {@link #transportDataEnd()}. Chunks are fed from a single
+	 * thread.
+	 * 
+	 * @param chunk
+	 *            the chunk
+	 * @param start
+	 *            the first character of the chunk
+	 * @param end
+	 *            the end of the chunk, exclusive
+	 */
+	public void transportData(CharSequence chunk, int start, int end) {
+		splitter.feed(chunk, start, end);
+	}
 
-			transportMessage(string);
+	/**
+	 * Ends a payload fed by {@link #transportData(CharSequence, int, int)}.
+	 */
+	public void transportDataEnd() {
+		splitter.end();
+	}
+
+	/**
+	 * Drops a payload fed by {@link #transportData(CharSequence, int, int)}
+	 * that couldn't be received completely.
+	 */
+	public void transportDataAbort() {
+		splitter.reset();
+	}
+
+	/**
+	 * Handles a connect packet from the server.
+	 * 
+	 * @param message
+	 *            the connect packet
+	 */
+	private void onServerConnect(IOMessage message) {
+		try {
+			final IOCallback callback;
+			if (firstSocket != null && "".equals(message.getEndpoint())) {
+				if (firstSocket.getNamespace().equals("")) {
+					callback = firstSocket.getCallback();
+				} else {
+					callback = null;
+					IOMessage connect = new IOMessage(IOMessage.TYPE_CONNECT,
+							firstSocket.getNamespace(), "");
+					sendPlain(connect.toString());
+				}
+			} else {
+				callback = findCallback(message);
+			}
+			firstSocket = null;
+			if (callback != null)
+				dispatcher.dispatchLifecycle(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							callback.onConnect();
+						} catch (Exception e) {
+							error(new SocketIOException(
+									"Exception was thrown in onConnect()", e));
+						}
+					}
+				});
+		} catch (Exception e) {
+			error(new SocketIOException("Exception was thrown in onConnect()",
+					e));
 		}
 	}
 
@@ -600,8 +1140,9 @@ class IOConnection implements IOCallback {
 	 * @param text
 	 *            the text
 	 */
-	public void transportMessage(String text) {
-		logger.info("< " + text);
+	public void transportMessage(final String text) {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("< " + text);
 		IOMessage message;
 		try {
 			message = new IOMessage(text);
@@ -613,66 +1154,78 @@ class IOConnection implements IOCallback {
 		switch (message.getType()) {
 		case IOMessage.TYPE_DISCONNECT:
 			try {
-				findCallback(message).onDisconnect();
-			} catch (Exception e) {
-				error(new SocketIOException(
-						"Exception was thrown in onDisconnect()", e));
+				final IOCallback callback = findCallback(message);
+				dispatcher.dispatchLifecycle(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							callback.onDisconnect();
+						} catch (Exception e) {
+							error(new SocketIOException(
+									"Exception was thrown in onDisconnect()", e));
+						}
+					}
+				});
+			} catch (SocketIOException e) {
+				error(e);
 			}
 			break;
 		case IOMessage.TYPE_CONNECT:
-			try {
-				if (firstSocket != null && "".equals(message.getEndpoint())) {
-					if (firstSocket.getNamespace().equals("")) {
-						firstSocket.getCallback().onConnect();
-					} else {
-						IOMessage connect = new IOMessage(
-								IOMessage.TYPE_CONNECT,
-								firstSocket.getNamespace(), "");
-						sendPlain(connect.toString());
-					}
-				} else {
-					findCallback(message).onConnect();
-				}
-				firstSocket = null;
-			} catch (Exception e) {
-				error(new SocketIOException(
-						"Exception was thrown in onConnect()", e));
-			}
+			onServerConnect(message);
 			break;
 		case IOMessage.TYPE_HEARTBEAT:
+			linkQuality.addHeartbeat(System.nanoTime());
 			sendPlain("2::");
 			break;
 		case IOMessage.TYPE_MESSAGE:
 			try {
-				findCallback(message).onMessage(message.getData(),
-						remoteAcknowledge(message));
-			} catch (Exception e) {
-				error(new SocketIOException(
-						"Exception was thrown in onMessage(String).\n"
-								+ "Message was: " + message.toString(), e));
+				final IOCallback callback = findCallback(message);
+				final String data = message.getData();
+				final IOAcknowledge ack = remoteAcknowledge(message);
+				dispatcher.dispatchCallback(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							callback.onMessage(data, ack);
+						} catch (Exception e) {
+							error(new SocketIOException(
+									"Exception was thrown in onMessage(String).\n"
+											+ "Message was: " + text, e));
+						}
+					}
+				});
+			} catch (SocketIOException e) {
+				error(e);
 			}
 			break;
 		case IOMessage.TYPE_JSON_MESSAGE:
 			try {
-				JSONObject obj = null;
-				String data = message.getData();
-				if (data.trim().equals("null") == false)
-					obj = new JSONObject(data);
-				try {
-					findCallback(message).onMessage(obj,
-							remoteAcknowledge(message));
-				} catch (Exception e) {
-					error(new SocketIOException(
-							"Exception was thrown in onMessage(JSONObject).\n"
-									+ "Message was: " + message.toString(), e));
-				}
+				final JSONObject obj = message.getJSONData();
+				final IOCallback callback = findCallback(message);
+				final IOAcknowledge ack = remoteAcknowledge(message);
+				dispatcher.dispatchCallback(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							callback.onMessage(obj, ack);
+						} catch (Exception e) {
+							error(new SocketIOException(
+									"Exception was thrown in onMessage(JSONObject).\n"
+											+ "Message was: " + text, e));
+						}
+					}
+				});
 			} catch (JSONException e) {
 				logger.warning("Malformated JSON received");
+			} catch (SocketIOException e) {
+				error(e);
 			}
 			break;
 		case IOMessage.TYPE_EVENT:
 			try {
-				JSONObject event = new JSONObject(message.getData());
+				JSONObject event = message.getJSONData();
+				if (event == null)
+					throw new JSONException("Event is null");
 				Object[] argsArray;
 				if (event.has("args")) {
 					JSONArray args = event.getJSONArray("args");
@@ -683,49 +1236,79 @@ class IOConnection implements IOCallback {
 					}
 				} else
 					argsArray = new Object[0];
-				String eventName = event.getString("name");
-				try {
-					findCallback(message).on(eventName,
-							remoteAcknowledge(message), argsArray);
-				} catch (Exception e) {
-					error(new SocketIOException(
-							"Exception was thrown in on(String, JSONObject[]).\n"
-									+ "Message was: " + message.toString(), e));
-				}
+				final String eventName = event.getString("name");
+				final Object[] eventArgs = argsArray;
+				final IOCallback callback = findCallback(message);
+				final IOAcknowledge ack = remoteAcknowledge(message);
+				dispatcher.dispatchEvent(eventName, new Runnable() {
+					@Override
+					public void run() {
+						try {
+							callback.on(eventName, ack, eventArgs);
+						} catch (Exception e) {
+							error(new SocketIOException(
+									"Exception was thrown in on(String, JSONObject[]).\n"
+											+ "Message was: " + text, e));
+						}
+					}
+				});
 			} catch (JSONException e) {
 				logger.warning("Malformated JSON received");
+			} catch (SocketIOException e) {
+				error(e);
 			}
 			break;
 
 		case IOMessage.TYPE_ACK:
-			String[] data = message.getData().split("\\+", 2);
-			if (data.length == 2) {
+			String data = message.getData();
+			int plus = data.indexOf('+');
+			if (plus >= 0) {
 				try {
-					int id = Integer.parseInt(data[0]);
-					IOAcknowledge ack = acknowledge.get(id);
+					int id = Integer.parseInt(data.substring(0, plus));
+					final IOAcknowledge ack = acks.complete(id);
 					if (ack == null)
-						logger.warning("Received unknown ack packet");
+						logger.warning("Received unknown or expired ack packet");
+					else if (ack instanceof PingAcknowledge)
+						ack.ack();
 					else {
-						JSONArray array = new JSONArray(data[1]);
-						Object[] args = new Object[array.length()];
+						JSONArray array = new JSONArray(data.substring(plus + 1));
+						final Object[] args = new Object[array.length()];
 						for (int i = 0; i < args.length; i++) {
 							args[i] = array.get(i);
 						}
-						ack.ack(args);
+						dispatcher.dispatchCallback(new Runnable() {
+							@Override
+							public void run() {
+								ack.ack(args);
+							}
+						});
 					}
 				} catch (NumberFormatException e) {
 					logger.warning("Received malformated Acknowledge! This is potentially filling up the acknowledges!");
 				} catch (JSONException e) {
 					logger.warning("Received malformated Acknowledge data!");
 				}
-			} else if (data.length == 1) {
-				sendPlain("6:::" + data[0]);
+			} else {
+				sendPlain("6:::" + data);
 			}
 			break;
 		case IOMessage.TYPE_ERROR:
+			if (resumed
+					&& (message.getData().equals(ERROR_NOT_HANDSHAKEN) || message
+							.getData().startsWith(ERROR_NOT_HANDSHAKEN + "+"))) {
+				rehandshake();
+				break;
+			}
 			try {
-				findCallback(message).onError(
-						new SocketIOException(message.getData()));
+				final IOCallback callback = findCallback(message);
+				final SocketIOException error = new SocketIOException(
+						message.getData());
+				dispatcher.dispatchCallback(new Runnable() {
+					@Override
+					public void run() {
+						callback.onError(error);
+					}
+				});
 			} catch (SocketIOException e) {
 				error(e);
 			}
@@ -744,20 +1327,80 @@ class IOConnection implements IOCallback {
 
 	/**
 	 * forces a reconnect. This had become useful on some android devices which
-	 * do not shut down TCP-connections when switching from HSDPA to Wifi
+	 * do not shut down TCP-connections when switching from HSDPA to Wifi. The
+	 * backoff is reset and the reconnect is attempted right away.
 	 */
-	public synchronized void reconnect() {
+	public void reconnect() {
+		reconnect(reconnectPolicy.retryNow());
+	}
+
+	/**
+	 * Drops the transport and reconnects after a delay.
+	 * 
+	 * @param delay
+	 *            the delay in milliseconds, see {@link ReconnectPolicy}
+	 */
+	private synchronized void reconnect(long delay) {
 		if (getState() != STATE_INVALID) {
 			invalidateTransport();
 			setState(STATE_INTERRUPTED);
-			if (reconnectTask != null) {
-				reconnectTask.cancel();
+			if (reconnectFuture != null) {
+				reconnectFuture.cancel(false);
 			}
-			reconnectTask = new ReconnectTask();
-			backgroundTimer.schedule(reconnectTask, 1000);
+			logger.info("Reconnecting in " + delay + "ms");
+			reconnectFuture = scheduler.schedule(reconnectTask, delay,
+					TimeUnit.MILLISECONDS);
 		}
 	}
 
+	/**
+	 * Gets the acknowledges this connection waits for, with their timeout and
+	 * round trip times.
+	 * 
+	 * @return the acknowledge registry
+	 */
+	public AckRegistry getAckRegistry() {
+		return acks;
+	}
+
+	/**
+	 * Gets the link quality of this connection.
+	 * 
+	 * @return the link quality
+	 */
+	public LinkQuality getLinkQuality() {
+		return linkQuality;
+	}
+
+	/**
+	 * Sets the listener told about the link quality after every ping.
+	 * 
+	 * @param listener
+	 *            the listener, null for none
+	 */
+	public void setLinkListener(LinkQuality.Listener listener) {
+		this.linkListener = listener;
+	}
+
+	/**
+	 * Gets the dispatcher that runs the callbacks of this connection.
+	 * 
+	 * @return the dispatcher
+	 */
+	IODispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	/**
+	 * Gets the reconnect policy of this connection, it holds the reconnect
+	 * time histogram.
+	 * 
+	 * @return the reconnect policy
+	 */
+	public ReconnectPolicy getReconnectPolicy() {
+		return reconnectPolicy;
+	}
+
 	/**
 	 * Returns the session id. This should be called from a {@link IOTransport}
 	 * 
@@ -829,6 +1472,36 @@ class IOConnection implements IOCallback {
 
 	}
 
+	/**
+	 * emits an event with pre-serialized arguments from {@link SocketIO} to
+	 * the {@link IOTransport}.
+	 * 
+	 * @param socket
+	 *            the socket
+	 * @param event
+	 *            the event
+	 * @param ack
+	 *            acknowledge package which can be called from the server
+	 * @param jsonArgs
+	 *            the arguments as a JSON array
+	 * @param telemetry
+	 *            true to send the event as droppable telemetry
+	 */
+	public void emitRaw(SocketIO socket, String event, IOAcknowledge ack,
+			String jsonArgs, boolean telemetry) {
+		StringBuilder data = new StringBuilder(event.length()
+				+ jsonArgs.length() + 20);
+		data.append("{\"name\":").append(JSONObject.quote(event))
+				.append(",\"args\":").append(jsonArgs).append('}');
+		IOMessage message = new IOMessage(IOMessage.TYPE_EVENT,
+				socket.getNamespace(), data.toString());
+		synthesizeAck(message, ack);
+		if (telemetry)
+			sendTelemetry(message.toString());
+		else
+			sendPlain(message.toString());
+	}
+
 	/**
 	 * Checks if IOConnection is currently connected.
 	 * 
@@ -843,8 +1516,8 @@ class IOConnection implements IOCallback {
 	 * 
 	 * @return current state
 	 */
-	private synchronized int getState() {
-		return state;
+	private int getState() {
+		return state.get();
 	}
 
 	/**
@@ -853,9 +1526,13 @@ class IOConnection implements IOCallback {
 	 * @param state
 	 *            the new state
 	 */
-	private synchronized void setState(int state) {
-		if (getState() != STATE_INVALID)
-			this.state = state;
+	private void setState(int state) {
+		int current;
+		do {
+			current = this.state.get();
+			if (current == STATE_INVALID)
+				return;
+		} while (!this.state.compareAndSet(current, state));
 	}
 
 	/**
@@ -869,39 +1546,39 @@ class IOConnection implements IOCallback {
 
 	@Override
 	public void onDisconnect() {
-		SocketIO socket = sockets.get("");
+		SocketIO socket = getSocket("");
 		if (socket != null)
 			socket.getCallback().onDisconnect();
 	}
 
 	@Override
 	public void onConnect() {
-		SocketIO socket = sockets.get("");
+		SocketIO socket = getSocket("");
 		if (socket != null)
 			socket.getCallback().onConnect();
 	}
 
 	@Override
 	public void onMessage(String data, IOAcknowledge ack) {
-		for (SocketIO socket : sockets.values())
+		for (SocketIO socket : sockets)
 			socket.getCallback().onMessage(data, ack);
 	}
 
 	@Override
 	public void onMessage(JSONObject json, IOAcknowledge ack) {
-		for (SocketIO socket : sockets.values())
+		for (SocketIO socket : sockets)
 			socket.getCallback().onMessage(json, ack);
 	}
 
 	@Override
 	public void on(String event, IOAcknowledge ack, Object... args) {
-		for (SocketIO socket : sockets.values())
+		for (SocketIO socket : sockets)
 			socket.getCallback().on(event, ack, args);
 	}
 
 	@Override
 	public void onError(SocketIOException socketIOException) {
-		for (SocketIO socket : sockets.values())
+		for (SocketIO socket : sockets)
 			socket.getCallback().onError(socketIOException);
 	}
 }
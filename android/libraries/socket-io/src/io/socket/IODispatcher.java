@@ -0,0 +1,374 @@
+/*
+ * socket.io-java-client IODispatcher.java
+ *
+ * Copyright (c) 2012, Enno Boland
+ * socket.io-java-client is a implementation of the socket.io protocol in Java.
+ *
+ * See LICENSE file for more information
+ */
+package io.socket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link IOCallback} calls off the transport thread, so the transport
+ * never waits for the application. Calls run on lanes: the calls of a lane run
+ * in order, different lanes run in parallel.
+ * <ul>
+ * <li>Control events have a lane on a dedicated thread that nothing else
+ * runs on.</li>
+ * <li>Events configured with {@link #setEventLanes(String...)} have a lane
+ * each, all other events share one.</li>
+ * <li>Messages, errors, acknowledges and the link quality listener share a
+ * lane.</li>
+ * </ul>
+ * All but the control lane run on the event executor. Connects and
+ * disconnects wait until every lane ran the calls queued before them, and
+ * hold up the calls queued after them.
+ */
+class IODispatcher {
+
+	/** The number of calls a lane runs before it yields its thread. */
+	private static final int LANE_BATCH = 16;
+
+	/** The default executor for event lanes, shared by all connections. */
+	private static ExecutorService defaultExecutor;
+
+	/** The executor of the control lane, shared by all connections. */
+	private static ExecutorService controlExecutor;
+
+	/** The executor for event lanes. */
+	private volatile Executor executor;
+
+	/** The lane of the control events. */
+	private final Lane controlLane;
+
+	/** The lane of messages, errors, acknowledges and the link listener. */
+	private final Lane callbackLane;
+
+	/** The lane of events without a lane of their own. */
+	private final Lane eventLane;
+
+	/** The lanes of the configured events, by event name. */
+	private volatile ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<String, Lane>();
+
+	/** The names of the control events. */
+	private final Set<String> controlEvents = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Instantiates a new dispatcher using the default executors.
+	 */
+	public IODispatcher() {
+		synchronized (IODispatcher.class) {
+			if (defaultExecutor == null) {
+				defaultExecutor = Executors.newCachedThreadPool(new Factory(
+						"io.socket-dispatch", Thread.NORM_PRIORITY));
+				controlExecutor = Executors
+						.newSingleThreadExecutor(new Factory(
+								"io.socket-control", Thread.MAX_PRIORITY));
+			}
+			this.executor = defaultExecutor;
+			this.controlLane = new Lane(controlExecutor);
+		}
+		this.callbackLane = new Lane(executor);
+		this.eventLane = new Lane(executor);
+	}
+
+	/**
+	 * Sets the executor that runs event handlers. Calls already queued may
+	 * still run on the previous one.
+	 *
+	 * @param executor
+	 *            the executor, null for the default one
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor != null ? executor : defaultExecutor;
+		callbackLane.executor = this.executor;
+		eventLane.executor = this.executor;
+		for (Lane lane : lanes.values())
+			lane.executor = this.executor;
+	}
+
+	/**
+	 * Sets the events that get a lane of their own. Calls already queued for
+	 * an event may still run next to later ones.
+	 * 
+	 * @param events
+	 *            the event names
+	 */
+	public void setEventLanes(String... events) {
+		ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<String, Lane>();
+		for (String event : events)
+			lanes.put(event, new Lane(executor));
+		this.lanes = lanes;
+	}
+
+	/**
+	 * Sets the events that go through the control lane.
+	 *
+	 * @param events
+	 *            the event names
+	 */
+	public void setControlEvents(String... events) {
+		controlEvents.clear();
+		for (String event : events)
+			controlEvents.add(event);
+	}
+
+	/**
+	 * Queues a call for an event.
+	 *
+	 * @param event
+	 *            the event name
+	 * @param call
+	 *            the call
+	 */
+	public void dispatchEvent(String event, Runnable call) {
+		if (controlEvents.contains(event)) {
+			controlLane.execute(call);
+			return;
+		}
+		Lane lane = lanes.get(event);
+		(lane != null ? lane : eventLane).execute(call);
+	}
+
+	/**
+	 * Queues a message, error, acknowledge or link listener call.
+	 *
+	 * @param call
+	 *            the call
+	 */
+	public void dispatchCallback(Runnable call) {
+		callbackLane.execute(call);
+	}
+
+	/**
+	 * Queues a connect or disconnect call. It runs once every lane ran the
+	 * calls queued before it, and no lane runs a later call before it's done.
+	 *
+	 * @param call
+	 *            the call
+	 */
+	public void dispatchLifecycle(Runnable call) {
+		List<Lane> all = new ArrayList<Lane>(lanes.values());
+		all.add(controlLane);
+		all.add(callbackLane);
+		all.add(eventLane);
+		Barrier barrier = new Barrier(call, all.size());
+		for (Lane lane : all)
+			lane.execute(barrier);
+	}
+
+	/**
+	 * Calls that run in order, one at a time, on an executor.
+	 */
+	private static class Lane implements Runnable {
+
+		/** The queued calls. */
+		private final ConcurrentLinkedQueue<Runnable> calls = new ConcurrentLinkedQueue<Runnable>();
+
+		/** true while the lane is submitted to or running on its executor. */
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		/** The executor. */
+		volatile Executor executor;
+
+		/**
+		 * Instantiates a new lane.
+		 *
+		 * @param executor
+		 *            the executor
+		 */
+		Lane(Executor executor) {
+			this.executor = executor;
+		}
+
+		/**
+		 * Queues a call.
+		 *
+		 * @param call
+		 *            the call
+		 */
+		void execute(Runnable call) {
+			calls.add(call);
+			schedule();
+		}
+
+		/**
+		 * Submits the lane again after it waited at a barrier.
+		 */
+		void resume() {
+			try {
+				executor.execute(this);
+			} catch (RuntimeException e) {
+				scheduled.set(false);
+				IOConnection.logger.warning("Couldn't dispatch: " + e);
+			}
+		}
+
+		/**
+		 * Submits the lane to its executor if it has calls and isn't
+		 * submitted yet.
+		 */
+		private void schedule() {
+			if (!calls.isEmpty() && scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RuntimeException e) {
+					scheduled.set(false);
+					IOConnection.logger.warning("Couldn't dispatch: " + e);
+				}
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			boolean waiting = false;
+			try {
+				Runnable call;
+				for (int i = 0; i < LANE_BATCH && (call = calls.poll()) != null; i++) {
+					if (call instanceof Barrier) {
+						// stays scheduled until the barrier resumes it
+						waiting = !((Barrier) call).arrive(this);
+						if (waiting)
+							return;
+						continue;
+					}
+					try {
+						call.run();
+					} catch (RuntimeException e) {
+						IOConnection.logger.warning("Callback failed: " + e);
+					}
+				}
+			} finally {
+				if (!waiting)
+					scheduled.set(false);
+			}
+			// more calls came in, or the batch was cut short
+			schedule();
+		}
+	}
+
+	/**
+	 * A call queued on several lanes. The last lane to get to it runs it and
+	 * resumes the others.
+	 */
+	private static class Barrier implements Runnable {
+
+		/** The call. */
+		private final Runnable call;
+
+		/** The number of lanes that didn't get to the barrier yet. */
+		private final AtomicInteger pending;
+
+		/** The lanes waiting at the barrier. */
+		private final ConcurrentLinkedQueue<Lane> waiting = new ConcurrentLinkedQueue<Lane>();
+
+		/**
+		 * Instantiates a new barrier.
+		 * 
+		 * @param call
+		 *            the call
+		 * @param lanes
+		 *            the number of lanes it's queued on
+		 */
+		Barrier(Runnable call, int lanes) {
+			this.call = call;
+			this.pending = new AtomicInteger(lanes);
+		}
+
+		/**
+		 * A lane got to the barrier.
+		 * 
+		 * @param lane
+		 *            the lane
+		 * @return true, if the lane can go on, false if it waits to be
+		 *         resumed
+		 */
+		boolean arrive(Lane lane) {
+			waiting.add(lane);
+			if (pending.decrementAndGet() > 0)
+				return false;
+			waiting.remove(lane);
+			run();
+			Lane next;
+			while ((next = waiting.poll()) != null)
+				next.resume();
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			try {
+				call.run();
+			} catch (RuntimeException e) {
+				IOConnection.logger.warning("Callback failed: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Creates the daemon threads of the default executors.
+	 */
+	private static class Factory implements ThreadFactory {
+
+		/** The thread name. */
+		private final String name;
+
+		/** The thread priority. */
+		private final int priority;
+
+		/** The number of threads created. */
+		private final AtomicInteger count = new AtomicInteger();
+
+		/**
+		 * Instantiates a new factory.
+		 *
+		 * @param name
+		 *            the thread name
+		 * @param priority
+		 *            the thread priority
+		 */
+		Factory(String name, int priority) {
+			this.name = name;
+			this.priority = priority;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+		 */
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-"
+					+ count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(priority);
+			return thread;
+		}
+	}
+}
@@ -8,6 +8,10 @@
  */
 package io.socket;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
 /**
  * The Class IOMessage.
  */
@@ -58,6 +62,21 @@ class IOMessage {
 	/** The field values */
 	private final String[] fields = new String[NUM_FIELDS];
 
+	/**
+	 * The raw message this IOMessage was parsed from, null if it was built
+	 * from field values. Fields are cut out of it only when they're asked for.
+	 */
+	private String text;
+
+	/** Start of each field in {@link #text}, -1 if the field is missing. */
+	private final int[] starts = new int[NUM_FIELDS];
+
+	/** End of each field in {@link #text}, exclusive. */
+	private final int[] ends = new int[NUM_FIELDS];
+
+	/** The parsed data, see {@link #getJSONData()}. */
+	private Object value;
+
 	/** Type */
 	private int type;
 	
@@ -97,18 +116,75 @@ class IOMessage {
 
 	/**
 	 * Instantiates a new IOMessage from a String representation. If the String
-	 * is not well formated, the result is undefined.
+	 * is not well formated, the result is undefined. Only the field boundaries
+	 * and the type are parsed here, the data is never scanned.
 	 * 
 	 * @param message
 	 *            the message
+	 * @throws NumberFormatException
+	 *             if the type isn't a number
 	 */
 	public IOMessage(String message) {
-		String[] fields = message.split(":", NUM_FIELDS);
-		for (int i = 0; i < fields.length; i++) {
-			this.fields[i] = fields[i];
-			if(i == FIELD_TYPE)
-				this.type = Integer.parseInt(fields[i]);
+		this.text = message;
+		int length = message.length();
+		int start = 0;
+		for (int i = 0; i < NUM_FIELDS; i++) {
+			if (start > length) {
+				starts[i] = -1;
+				ends[i] = -1;
+				continue;
+			}
+			int end = i == FIELD_DATA ? -1 : message.indexOf(':', start);
+			if (end < 0)
+				end = length;
+			starts[i] = start;
+			ends[i] = end;
+			start = end + 1;
+		}
+		this.type = parseType(message, starts[FIELD_TYPE], ends[FIELD_TYPE]);
+	}
+
+	/**
+	 * Parses the decimal type field without cutting it out of the message.
+	 * 
+	 * @param text
+	 *            the message
+	 * @param start
+	 *            start of the field
+	 * @param end
+	 *            end of the field, exclusive
+	 * @return the type
+	 */
+	private static int parseType(String text, int start, int end) {
+		if (start >= end)
+			throw new NumberFormatException("Missing message type");
+		int type = 0;
+		for (int i = start; i < end; i++) {
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("Invalid message type: "
+						+ text.substring(start, end));
+			type = type * 10 + digit;
 		}
+		return type;
+	}
+
+	/**
+	 * Returns a field, cutting it out of the raw message on first use.
+	 * 
+	 * @param index
+	 *            the field index
+	 * @return the field value, null if it's missing
+	 */
+	private String field(int index) {
+		String field = fields[index];
+		if (field == null && text != null && starts[index] >= 0) {
+			int start = starts[index];
+			int end = ends[index];
+			field = start == end ? "" : text.substring(start, end);
+			fields[index] = field;
+		}
+		return field;
 	}
 
 	/**
@@ -116,6 +192,8 @@ class IOMessage {
 	 */
 	@Override
 	public String toString() {
+		if (text != null)
+			return text;
 		StringBuilder builder = new StringBuilder();
 		for(int i = 0; i < fields.length; i++) {
 			builder.append(':');
@@ -140,7 +218,7 @@ class IOMessage {
 	 * @return the id
 	 */
 	public String getId() {
-		return fields[FIELD_ID];
+		return field(FIELD_ID);
 	}
 
 	/**
@@ -149,6 +227,9 @@ class IOMessage {
 	 * @param id
 	 */
 	public void setId(String id) {
+		for (int i = 0; i < NUM_FIELDS; i++)
+			field(i);
+		text = null;
 		fields[FIELD_ID] = id;
 	}
 
@@ -158,7 +239,25 @@ class IOMessage {
 	 * @return the endpoint
 	 */
 	public String getEndpoint() {
-		return fields[FIELD_ENDPOINT];
+		return field(FIELD_ENDPOINT);
+	}
+
+	/**
+	 * Checks if this IOMessage is addressed to a namespace, without cutting
+	 * the endpoint out of the raw message.
+	 * 
+	 * @param namespace
+	 *            the namespace
+	 * @return true, if the endpoint equals <code>namespace</code>
+	 */
+	public boolean isEndpoint(String namespace) {
+		String field = fields[FIELD_ENDPOINT];
+		if (field != null || text == null)
+			return namespace.equals(field);
+		int start = starts[FIELD_ENDPOINT];
+		int length = namespace.length();
+		return start >= 0 && ends[FIELD_ENDPOINT] - start == length
+				&& text.regionMatches(start, namespace, 0, length);
 	}
 
 	/**
@@ -167,7 +266,34 @@ class IOMessage {
 	 * @return the data
 	 */
 	public String getData() {
-		return fields[FIELD_DATA];
+		return field(FIELD_DATA);
+	}
+
+	/**
+	 * Returns the data of this IOMessage as a JSON object. The data is parsed
+	 * on first use, straight from the raw message without copying it.
+	 * 
+	 * @return the data, null if the data is JSON null
+	 * @throws JSONException
+	 *             if the data is missing or not a JSON object
+	 */
+	public JSONObject getJSONData() throws JSONException {
+		if (value == null) {
+			JSONTokener tokener;
+			if (text != null && starts[FIELD_DATA] >= 0) {
+				tokener = new JSONTokener(text);
+				tokener.next(starts[FIELD_DATA]);
+			} else if (fields[FIELD_DATA] != null) {
+				tokener = new JSONTokener(fields[FIELD_DATA]);
+			} else
+				throw new JSONException("Message has no data");
+			value = tokener.nextValue();
+		}
+		if (value == JSONObject.NULL)
+			return null;
+		if (value instanceof JSONObject)
+			return (JSONObject) value;
+		throw new JSONException("Message data is not a JSON object");
 	}
 
 }
@@ -0,0 +1,26 @@
+/*
+ * socket.io-java-client IORawAcknowledge.java
+ *
+ * Copyright (c) 2012, Enno Boland
+ * socket.io-java-client is a implementation of the socket.io protocol in Java.
+ *
+ * See LICENSE file for more information
+ */
+package io.socket;
+
+/**
+ * An {@link IOAcknowledge} that can also send arguments which are already
+ * serialized to JSON, like {@link SocketIO#emitRaw(String, String)}.
+ */
+public interface IORawAcknowledge extends IOAcknowledge {
+
+	/**
+	 * Acknowledges a socket.io message without building
+	 * {@link org.json.JSONArray}s for the arguments.
+	 * 
+	 * @param jsonArgs
+	 *            the arguments as a JSON array, e.g. <code>[{"a":1},2]</code>.
+	 *            Not validated.
+	 */
+	void ackRaw(String jsonArgs);
+}
@@ -0,0 +1,22 @@
+/*
+ * socket.io-java-client IOTimeoutAcknowledge.java
+ *
+ * Copyright (c) 2012, Enno Boland
+ * socket.io-java-client is a implementation of the socket.io protocol in Java.
+ *
+ * See LICENSE file for more information
+ */
+package io.socket;
+
+/**
+ * An {@link IOAcknowledge} that wants to know when the server didn't
+ * acknowledge in time. Plain acknowledges are dropped silently.
+ */
+public interface IOTimeoutAcknowledge extends IOAcknowledge {
+
+	/**
+	 * Called instead of {@link #ack(Object...)} when the server didn't
+	 * acknowledge in time, or the connection was shut down before it did.
+	 */
+	void timeout();
+}
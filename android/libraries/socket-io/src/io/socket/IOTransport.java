@@ -54,6 +54,16 @@ interface IOTransport {
 	 */
 	void sendBulk(String[] texts) throws IOException;
 
+	/**
+	 * Writes out everything that was sent since the last flush. Transports
+	 * may hold messages back until then to write them together. The
+	 * {@link io.socket.IOConnection} calls this after each batch of sends.
+	 * 
+	 * @throws java.io.IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void flush() throws IOException;
+
 	/**
 	 * Instructs the IOTransport to invalidate. DO NOT DISCONNECT from the
 	 * server. just make sure, that events are not populated to the
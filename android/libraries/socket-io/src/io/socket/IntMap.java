@@ -0,0 +1,211 @@
+/*
+ * socket.io-java-client IntMap.java
+ *
+ * Copyright (c) 2012, Enno Boland
+ * socket.io-java-client is a implementation of the socket.io protocol in Java.
+ *
+ * See LICENSE file for more information
+ */
+package io.socket;
+
+/**
+ * A map from int keys to values, without boxing the keys. Open addressing
+ * with linear probing, entries are removed by shifting the following ones
+ * back so no tombstones pile up. Null values aren't allowed, a null slot is
+ * an empty one. Not thread safe.
+ *
+ * @param <V>
+ *            the value type
+ */
+class IntMap<V> {
+
+	/** The initial capacity, a power of two. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The keys. */
+	private int[] keys;
+
+	/** The values, null for empty slots. */
+	private Object[] values;
+
+	/** The number of entries. */
+	private int size;
+
+	/**
+	 * Instantiates a new empty map.
+	 */
+	public IntMap() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if there's none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int index = indexOf(key);
+		return index < 0 ? null : (V) values[index];
+	}
+
+	/**
+	 * Puts a value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not null
+	 * @return the previous value, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null)
+			throw new NullPointerException("value");
+		if ((size + 1) * 4 > values.length * 3)
+			rehash(values.length * 2);
+		int mask = values.length - 1;
+		int index = hash(key) & mask;
+		while (values[index] != null) {
+			if (keys[index] == key) {
+				V old = (V) values[index];
+				values[index] = value;
+				return old;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[index] = key;
+		values[index] = value;
+		size++;
+		return null;
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int index = indexOf(key);
+		if (index < 0)
+			return null;
+		V old = (V) values[index];
+		int mask = values.length - 1;
+		int free = index;
+		// shift back every entry that would become unreachable
+		for (int i = (free + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+			int home = hash(keys[i]) & mask;
+			if (((i - home) & mask) >= ((i - free) & mask)) {
+				keys[free] = keys[i];
+				values[free] = values[i];
+				free = i;
+			}
+		}
+		values[free] = null;
+		size--;
+		if (size == 0 && values.length > INITIAL_CAPACITY)
+			// give back what a burst took
+			allocate(INITIAL_CAPACITY);
+		return old;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Gets the number of slots, for iterating with {@link #valueAt(int)}.
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return values.length;
+	}
+
+	/**
+	 * Gets the value in a slot.
+	 *
+	 * @param index
+	 *            the slot, below {@link #capacity()}
+	 * @return the value, or null if the slot is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public V valueAt(int index) {
+		return (V) values[index];
+	}
+
+	/**
+	 * Finds the slot of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the slot, or -1 if the key isn't there
+	 */
+	private int indexOf(int key) {
+		int mask = values.length - 1;
+		int index = hash(key) & mask;
+		while (values[index] != null) {
+			if (keys[index] == key)
+				return index;
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Moves all entries to a table of a new capacity.
+	 *
+	 * @param capacity
+	 *            the capacity, a power of two
+	 */
+	@SuppressWarnings("unchecked")
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldValues.length; i++)
+			if (oldValues[i] != null)
+				put(oldKeys[i], (V) oldValues[i]);
+	}
+
+	/**
+	 * Replaces the table with an empty one.
+	 *
+	 * @param capacity
+	 *            the capacity, a power of two
+	 */
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		size = 0;
+	}
+
+	/**
+	 * Spreads sequential keys across the table.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the hash
+	 */
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
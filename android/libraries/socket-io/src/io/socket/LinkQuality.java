@@ -0,0 +1,221 @@
+/*
+ * socket.io-java-client LinkQuality.java
+ *
+ * Copyright (c) 2012, Enno Boland
+ * socket.io-java-client is a implementation of the socket.io protocol in Java.
+ *
+ * See LICENSE file for more information
+ */
+package io.socket;
+
+/**
+ * Link quality of an {@link IOConnection}. Round trips come from pings the
+ * client sends and the server acknowledges, they're smoothed the way TCP
+ * smooths its RTT (RFC 6298) and counted in a histogram. Heartbeats only
+ * travel from the server to the client, so they can't be timed, but the
+ * variation of their arrival intervals is tracked as heartbeat jitter.
+ */
+public class LinkQuality {
+
+	/** The upper bounds of the round trip histogram buckets, in milliseconds. */
+	private static final long[] HISTOGRAM_BOUNDS = { 25, 50, 100, 250, 500,
+			1000, 2500, 5000 };
+
+	/** The number of recent round trips kept. */
+	private static final int WINDOW = 32;
+
+	/**
+	 * Listener interface for link quality updates.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called on the callback control lane after every ping, answered or
+		 * not.
+		 *
+		 * @param quality
+		 *            the link quality
+		 */
+		void onLinkQuality(LinkQuality quality);
+	}
+
+	/** The round trip histogram, the last bucket counts the slower ones. */
+	private final long[] histogram = new long[HISTOGRAM_BOUNDS.length + 1];
+
+	/** The recent round trips, in nanoseconds. */
+	private final long[] window = new long[WINDOW];
+
+	/** The number of round trips measured. */
+	private long roundTrips;
+
+	/** The number of pings that were never answered. */
+	private long lost;
+
+	/** The last round trip, in nanoseconds. */
+	private long lastRtt;
+
+	/** The smoothed round trip, in nanoseconds. */
+	private long smoothedRtt;
+
+	/** The round trip variation, in nanoseconds. */
+	private long rttVariation;
+
+	/** When the last heartbeat arrived, in nanoseconds. */
+	private long lastHeartbeat;
+
+	/** The last interval between heartbeats, in nanoseconds. */
+	private long lastHeartbeatInterval;
+
+	/** The smoothed heartbeat jitter, in nanoseconds. */
+	private long heartbeatJitter;
+
+	/** The number of heartbeats received. */
+	private long heartbeats;
+
+	/**
+	 * Records an answered ping.
+	 *
+	 * @param rtt
+	 *            the round trip, in nanoseconds
+	 */
+	synchronized void addRoundTrip(long rtt) {
+		if (roundTrips == 0) {
+			smoothedRtt = rtt;
+			rttVariation = rtt / 2;
+		} else {
+			rttVariation += (Math.abs(smoothedRtt - rtt) - rttVariation) / 4;
+			smoothedRtt += (rtt - smoothedRtt) / 8;
+		}
+		window[(int) (roundTrips % WINDOW)] = rtt;
+		roundTrips++;
+		lastRtt = rtt;
+		long millis = rtt / 1000000;
+		int bucket = 0;
+		while (bucket < HISTOGRAM_BOUNDS.length
+				&& millis > HISTOGRAM_BOUNDS[bucket])
+			bucket++;
+		histogram[bucket]++;
+	}
+
+	/**
+	 * Records a ping that was never answered.
+	 */
+	synchronized void addLost() {
+		lost++;
+	}
+
+	/**
+	 * Records a heartbeat from the server.
+	 *
+	 * @param now
+	 *            the arrival time, in nanoseconds
+	 */
+	synchronized void addHeartbeat(long now) {
+		if (heartbeats > 0) {
+			long interval = now - lastHeartbeat;
+			if (heartbeats > 1)
+				// RFC 3550 interarrival jitter
+				heartbeatJitter += (Math.abs(interval
+						- lastHeartbeatInterval) - heartbeatJitter) / 16;
+			lastHeartbeatInterval = interval;
+		}
+		lastHeartbeat = now;
+		heartbeats++;
+	}
+
+	/**
+	 * Gets the last round trip.
+	 *
+	 * @return in milliseconds, 0 before the first one
+	 */
+	public synchronized long getLastRtt() {
+		return lastRtt / 1000000;
+	}
+
+	/**
+	 * Gets the smoothed round trip.
+	 *
+	 * @return in milliseconds, 0 before the first one
+	 */
+	public synchronized long getSmoothedRtt() {
+		return smoothedRtt / 1000000;
+	}
+
+	/**
+	 * Gets the round trip variation, the jitter of the round trips.
+	 *
+	 * @return in milliseconds
+	 */
+	public synchronized long getRttJitter() {
+		return rttVariation / 1000000;
+	}
+
+	/**
+	 * Gets the highest of the recent round trips.
+	 *
+	 * @return in milliseconds
+	 */
+	public synchronized long getRecentMaxRtt() {
+		long max = 0;
+		for (int i = 0; i < WINDOW && i < roundTrips; i++)
+			max = Math.max(max, window[i]);
+		return max / 1000000;
+	}
+
+	/**
+	 * Gets the heartbeat jitter, how much the intervals between heartbeats
+	 * vary.
+	 *
+	 * @return in milliseconds
+	 */
+	public synchronized long getHeartbeatJitter() {
+		return heartbeatJitter / 1000000;
+	}
+
+	/**
+	 * Gets the number of heartbeats received.
+	 *
+	 * @return the count
+	 */
+	public synchronized long getHeartbeatCount() {
+		return heartbeats;
+	}
+
+	/**
+	 * Gets the number of answered pings.
+	 *
+	 * @return the count
+	 */
+	public synchronized long getRoundTripCount() {
+		return roundTrips;
+	}
+
+	/**
+	 * Gets the number of pings that were never answered.
+	 *
+	 * @return the count
+	 */
+	public synchronized long getLostCount() {
+		return lost;
+	}
+
+	/**
+	 * Gets the round trip histogram. Bucket <code>i</code> counts round trips
+	 * of at most {@link #getHistogramBounds()}<code>[i]</code> milliseconds,
+	 * the last bucket counts the slower ones.
+	 *
+	 * @return a copy of the bucket counts
+	 */
+	public synchronized long[] getHistogram() {
+		return histogram.clone();
+	}
+
+	/**
+	 * Gets the upper bounds of the histogram buckets.
+	 *
+	 * @return in milliseconds
+	 */
+	public static long[] getHistogramBounds() {
+		return HISTOGRAM_BOUNDS.clone();
+	}
+}
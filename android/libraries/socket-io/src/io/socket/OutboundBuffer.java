@@ -0,0 +1,154 @@
+/*
+ * socket.io-java-client OutboundBuffer.java
+ *
+ * Copyright (c) 2012, Enno Boland
+ * socket.io-java-client is a implementation of the socket.io protocol in Java.
+ *
+ * See LICENSE file for more information
+ */
+package io.socket;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The messages waiting to be sent by an {@link IOConnection}, in two lanes.
+ * Control messages (acks, heartbeats, connects and any event not sent as
+ * telemetry) are never dropped and always go out first. Telemetry is bounded,
+ * once the lane is full the oldest message is dropped to make room, so an
+ * outage doesn't pile up stale samples. Any thread may add messages, only a
+ * single writer drains them.
+ */
+class OutboundBuffer {
+
+	/** The control lane. */
+	private final ConcurrentLinkedQueue<String> control = new ConcurrentLinkedQueue<String>();
+
+	/** The telemetry lane. */
+	private final ConcurrentLinkedQueue<String> telemetry = new ConcurrentLinkedQueue<String>();
+
+	/** The number of messages in the control lane. */
+	private final AtomicInteger controlSize = new AtomicInteger();
+
+	/** The number of messages in the telemetry lane. */
+	private final AtomicInteger telemetrySize = new AtomicInteger();
+
+	/** The number of dropped telemetry messages. */
+	private final AtomicLong dropped = new AtomicLong();
+
+	/** The capacity of the telemetry lane. */
+	private final int telemetryCapacity;
+
+	/**
+	 * Instantiates a new outbound buffer.
+	 *
+	 * @param telemetryCapacity
+	 *            the number of telemetry messages kept at most
+	 */
+	public OutboundBuffer(int telemetryCapacity) {
+		this.telemetryCapacity = telemetryCapacity;
+	}
+
+	/**
+	 * Adds a control message.
+	 *
+	 * @param text
+	 *            the message
+	 */
+	public void add(String text) {
+		control.add(text);
+		controlSize.incrementAndGet();
+	}
+
+	/**
+	 * Adds a telemetry message, dropping the oldest one if the lane is full.
+	 *
+	 * @param text
+	 *            the message
+	 */
+	public void addTelemetry(String text) {
+		telemetry.add(text);
+		if (telemetrySize.incrementAndGet() > telemetryCapacity
+				&& telemetry.poll() != null) {
+			telemetrySize.decrementAndGet();
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Checks if there's nothing to send.
+	 *
+	 * @return true, if both lanes are empty
+	 */
+	public boolean isEmpty() {
+		return control.isEmpty() && telemetry.isEmpty();
+	}
+
+	/**
+	 * Gets the number of messages waiting to be sent.
+	 *
+	 * @return the queue depth
+	 */
+	public int size() {
+		return controlSize.get() + telemetrySize.get();
+	}
+
+	/**
+	 * Gets the number of telemetry messages dropped so far, either to make
+	 * room or because the transport failed to send them.
+	 *
+	 * @return the drop count
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Collects the messages to send, control messages first. Control
+	 * messages stay in the buffer until they're {@link #commit(int)}ted,
+	 * telemetry is taken out right away. Writer only.
+	 *
+	 * @param out
+	 *            receives the messages
+	 * @return the number of control messages in <code>out</code>, they come
+	 *         first
+	 */
+	public int drainTo(List<String> out) {
+		int start = out.size();
+		for (String text : control)
+			out.add(text);
+		int controlCount = out.size() - start;
+		String text;
+		while ((text = telemetry.poll()) != null) {
+			telemetrySize.decrementAndGet();
+			out.add(text);
+		}
+		return controlCount;
+	}
+
+	/**
+	 * Removes control messages that were sent. Writer only.
+	 *
+	 * @param count
+	 *            the number of control messages sent, from the head of the
+	 *            lane
+	 */
+	public void commit(int count) {
+		for (int i = 0; i < count && control.poll() != null; i++)
+			controlSize.decrementAndGet();
+	}
+
+	/**
+	 * Counts telemetry messages taken by {@link #drainTo(List)} that couldn't
+	 * be sent.
+	 *
+	 * @param count
+	 *            the number of lost messages
+	 */
+	public void lost(int count) {
+		if (count > 0)
+			dropped.addAndGet(count);
+	}
+}
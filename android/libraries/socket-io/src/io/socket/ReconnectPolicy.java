@@ -0,0 +1,218 @@
+/*
+ * socket.io-java-client ReconnectPolicy.java
+ *
+ * Copyright (c) 2012, Enno Boland
+ * socket.io-java-client is a implementation of the socket.io protocol in Java.
+ *
+ * See LICENSE file for more information
+ */
+package io.socket;
+
+import java.util.Random;
+
+/**
+ * Decides when to retry a dropped connection. It has no dependencies, so
+ * other connections of an application (e.g. to a USB accessory) can share
+ * it. Delays grow exponentially with the number of consecutive failures and
+ * are fully jittered (uniformly random between zero and the current
+ * ceiling), so clients that lost the same server don't come back in
+ * lockstep. After too many consecutive failures the circuit opens and no
+ * attempt is made for a while, then a single attempt is let through. An
+ * external hint that the peer is back (e.g. an attach broadcast) resets
+ * everything for an immediate retry. The time it took to reconnect is
+ * recorded in a histogram.
+ */
+public class ReconnectPolicy {
+
+	/** The upper bounds of the histogram buckets, in milliseconds. */
+	private static final long[] HISTOGRAM_BOUNDS = { 100, 250, 500, 1000,
+			2500, 5000, 10000, 30000, 60000 };
+
+	/** The delay ceiling after the first failure, in milliseconds. */
+	private final long baseDelay;
+
+	/** The highest delay ceiling, in milliseconds. */
+	private final long maxDelay;
+
+	/** The number of consecutive failures that opens the circuit. */
+	private final int failureThreshold;
+
+	/** How long the circuit stays open, in milliseconds. */
+	private final long openTime;
+
+	/** The jitter source. */
+	private final Random random = new Random();
+
+	/** The reconnect time histogram, the last bucket counts the slower ones. */
+	private final long[] histogram = new long[HISTOGRAM_BOUNDS.length + 1];
+
+	/** The number of consecutive failures. */
+	private int failures;
+
+	/** When the connection dropped, -1 while connected. */
+	private long disconnectedAt = -1;
+
+	/** Attempts are held back until then, in milliseconds. */
+	private long openUntil;
+
+	/** The number of successful reconnects. */
+	private long reconnects;
+
+	/** The number of times the circuit opened. */
+	private long circuitOpenings;
+
+	/**
+	 * Instantiates a new reconnect policy.
+	 * 
+	 * @param baseDelay
+	 *            the delay ceiling after the first failure, in milliseconds
+	 * @param maxDelay
+	 *            the highest delay ceiling, in milliseconds
+	 * @param failureThreshold
+	 *            the number of consecutive failures that opens the circuit
+	 * @param openTime
+	 *            how long the circuit stays open, in milliseconds
+	 */
+	public ReconnectPolicy(long baseDelay, long maxDelay,
+			int failureThreshold, long openTime) {
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.failureThreshold = failureThreshold;
+		this.openTime = openTime;
+	}
+
+	/**
+	 * Gets the delay before the next attempt, after the connection dropped
+	 * or an attempt failed.
+	 * 
+	 * @return the delay in milliseconds
+	 */
+	public synchronized long nextDelay() {
+		long now = now();
+		if (disconnectedAt < 0)
+			disconnectedAt = now;
+
+		long ceiling = baseDelay << Math.min(failures, 30);
+		if (ceiling <= 0 || ceiling > maxDelay)
+			ceiling = maxDelay;
+
+		long delay = (long) (random.nextDouble() * ceiling);
+		failures++;
+		if (failures >= failureThreshold) {
+			if (now >= openUntil) {
+				// closed, or the single attempt let through an open circuit
+				// failed as well
+				openUntil = now + openTime;
+				circuitOpenings++;
+			}
+			delay = Math.max(delay, openUntil - now);
+		}
+		return delay;
+	}
+
+	/**
+	 * Resets the backoff and closes the circuit, the peer is known to be
+	 * back.
+	 * 
+	 * @return the delay before the next attempt, always 0
+	 */
+	public synchronized long retryNow() {
+		if (disconnectedAt < 0)
+			disconnectedAt = now();
+		failures = 0;
+		openUntil = 0;
+		return 0;
+	}
+
+	/**
+	 * Marks the connection as dropped, reconnect time is measured from the
+	 * first call.
+	 */
+	public synchronized void onDisconnected() {
+		if (disconnectedAt < 0)
+			disconnectedAt = now();
+	}
+
+	/**
+	 * Marks the connection as established, resets the backoff.
+	 */
+	public synchronized void onConnected() {
+		if (disconnectedAt >= 0) {
+			long elapsed = now() - disconnectedAt;
+			int bucket = 0;
+			while (bucket < HISTOGRAM_BOUNDS.length
+					&& elapsed > HISTOGRAM_BOUNDS[bucket])
+				bucket++;
+			histogram[bucket]++;
+			reconnects++;
+			disconnectedAt = -1;
+		}
+		failures = 0;
+		openUntil = 0;
+	}
+
+	/**
+	 * Checks if attempts are currently held back.
+	 * 
+	 * @return true, if the circuit is open
+	 */
+	public synchronized boolean isCircuitOpen() {
+		return now() < openUntil;
+	}
+
+	/**
+	 * Gets the number of consecutive failures.
+	 * 
+	 * @return the failure count
+	 */
+	public synchronized int getFailureCount() {
+		return failures;
+	}
+
+	/**
+	 * Gets the number of successful reconnects.
+	 * 
+	 * @return the reconnect count
+	 */
+	public synchronized long getReconnectCount() {
+		return reconnects;
+	}
+
+	/**
+	 * Gets the number of times the circuit opened.
+	 * 
+	 * @return the circuit open count
+	 */
+	public synchronized long getCircuitOpenCount() {
+		return circuitOpenings;
+	}
+
+	/**
+	 * Gets the reconnect time histogram. Bucket <code>i</code> counts
+	 * reconnects that took at most {@link #getHistogramBounds()}
+	 * <code>[i]</code> milliseconds, the last bucket counts the slower ones.
+	 * 
+	 * @return a copy of the bucket counts
+	 */
+	public synchronized long[] getHistogram() {
+		return histogram.clone();
+	}
+
+	/**
+	 * Gets the upper bounds of the histogram buckets.
+	 * 
+	 * @return the bounds in milliseconds
+	 */
+	public static long[] getHistogramBounds() {
+		return HISTOGRAM_BOUNDS.clone();
+	}
+
+	/**
+	 * Gets a monotonic time.
+	 * 
+	 * @return the time in milliseconds
+	 */
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+}
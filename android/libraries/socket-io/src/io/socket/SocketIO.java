@@ -14,6 +14,7 @@ import javax.net.ssl.SSLContext;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Properties;
+import java.util.concurrent.Executor;
 
 /**
  * The Class SocketIO.
@@ -252,6 +253,124 @@ public class SocketIO {
 		this.connection.emit(this, event, ack, args);
 	}
 
+	/**
+	 * Emits an event whose arguments are already serialized to JSON. This
+	 * skips building {@link org.json.JSONObject}s for data that is sent at a
+	 * high rate. If the connection is not established, the call will be
+	 * buffered and sent as soon as it is possible.
+	 * 
+	 * @param event
+	 *            the event name
+	 * @param jsonArgs
+	 *            the arguments as a JSON array, e.g. <code>[{"a":1},2]</code>.
+	 *            Not validated.
+	 */
+	public void emitRaw(final String event, final String jsonArgs) {
+		this.connection.emitRaw(this, event, null, jsonArgs, false);
+	}
+
+	/**
+	 * Emits telemetry whose arguments are already serialized to JSON, see
+	 * {@link #emitRaw(String, String)}. Telemetry is sent after any pending
+	 * acknowledges, messages and events. While the connection is not
+	 * established only the newest {@link IOConnection#TELEMETRY_CAPACITY}
+	 * telemetry events are buffered, older ones are dropped.
+	 * 
+	 * @param event
+	 *            the event name
+	 * @param jsonArgs
+	 *            the arguments as a JSON array, e.g. <code>[{"a":1},2]</code>.
+	 *            Not validated.
+	 */
+	public void emitTelemetry(final String event, final String jsonArgs) {
+		this.connection.emitRaw(this, event, null, jsonArgs, true);
+	}
+
+	/**
+	 * Gets the number of messages waiting to be sent on this connection.
+	 * 
+	 * @return the queue depth
+	 */
+	public int getOutboundQueueDepth() {
+		return this.connection.getOutboundQueueDepth();
+	}
+
+	/**
+	 * Gets the number of telemetry events dropped on this connection.
+	 * 
+	 * @return the drop count
+	 */
+	public long getOutboundDropCount() {
+		return this.connection.getOutboundDropCount();
+	}
+
+	/**
+	 * Gets the acknowledges the underlying connection waits for. Sets how long
+	 * to wait for them and holds the server round trip times.
+	 * 
+	 * @return the acknowledge registry
+	 */
+	public AckRegistry getAckRegistry() {
+		return this.connection.getAckRegistry();
+	}
+
+	/**
+	 * Gets the link quality of the underlying connection: ping round trips,
+	 * their jitter and histogram, and heartbeat jitter.
+	 * 
+	 * @return the link quality
+	 */
+	public LinkQuality getLinkQuality() {
+		return this.connection.getLinkQuality();
+	}
+
+	/**
+	 * Sets the listener told about the link quality of the underlying
+	 * connection after every ping. Must be called after connecting.
+	 * 
+	 * @param listener
+	 *            the listener, null for none
+	 */
+	public void setLinkListener(LinkQuality.Listener listener) {
+		this.connection.setLinkListener(listener);
+	}
+
+	/**
+	 * Sets the executor that runs the callbacks of this connection, except
+	 * for the control events. Events with the same name are still handled one
+	 * at a time, in order. Must be called after connecting.
+	 * 
+	 * @param executor
+	 *            the executor, null for the default one
+	 */
+	public void setCallbackExecutor(Executor executor) {
+		this.connection.getDispatcher().setExecutor(executor);
+	}
+
+	/**
+	 * Sets the events handled on the control thread of this connection. Their
+	 * handlers never wait behind other events or callbacks. Must be called
+	 * after connecting.
+	 * 
+	 * @param events
+	 *            the event names
+	 */
+	public void setControlEvents(String... events) {
+		this.connection.getDispatcher().setControlEvents(events);
+	}
+
+	/**
+	 * Sets the events whose handlers don't wait behind other events. The
+	 * handlers of all other events run one at a time. Must be called after
+	 * connecting.
+	 * 
+	 * @param events
+	 *            the event names
+	 */
+	public void setEventLanes(String... events) {
+		this.connection.getDispatcher().setEventLanes(events);
+	}
+
 	/**
 	 * Gets the callback. Internally used.
 	 * 
@@ -331,6 +450,16 @@ public class SocketIO {
 		this.connection.reconnect();
 	}
 
+	/**
+	 * Gets the reconnect policy of the underlying connection. It holds the
+	 * reconnect time histogram and the circuit breaker state.
+	 * 
+	 * @return the reconnect policy
+	 */
+	public ReconnectPolicy getReconnectPolicy() {
+		return this.connection.getReconnectPolicy();
+	}
+
 	/**
 	 * Returns, if a connection is established at the moment
 	 * 
@@ -1,19 +1,39 @@
 package io.socket;
 
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.client.DefaultSSLWebSocketClientFactory;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
 
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.NotYetConnectedException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
+/**
+ * The Class WebsocketTransport. Sent messages are encoded into frames right
+ * away but held back until {@link #flush()}, which hands all of them to the
+ * socket as a single buffer, so a batch of messages costs one socket write.
+ */
 class WebsocketTransport extends WebSocketClient implements IOTransport {
     private final static Pattern PATTERN_HTTP = Pattern.compile("^http");
     public static final String TRANSPORT_NAME = "websocket";
     private IOConnection connection;
+
+    /** Encoded frames waiting for {@link #flush()}. */
+    private final List<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+
+    /** The number of bytes in {@link #pending}. */
+    private int pendingBytes;
+
     public static IOTransport create(URL url, IOConnection connection) {
         URI uri = URI.create(
                 PATTERN_HTTP.matcher(url.toString()).replaceFirst("ws")
@@ -24,7 +44,7 @@ class WebsocketTransport extends WebSocketClient implements IOTransport {
     }
 
     public WebsocketTransport(URI uri, IOConnection connection) {
-        super(uri);
+        super(uri, new DeflateDraft());
         this.connection = connection;
         SSLContext context = IOConnection.getSslContext();
         if("wss".equals(uri.getScheme()) && context != null) {
@@ -49,7 +69,23 @@ class WebsocketTransport extends WebSocketClient implements IOTransport {
      */
     @Override
     public boolean canSendBulk() {
-        return false;
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see io.socket.IOTransport#send(java.lang.String)
+     */
+    @Override
+    public void send(String text) throws NotYetConnectedException {
+        synchronized (pending) {
+            int count = pending.size();
+            try {
+                encode(text);
+            } catch (RuntimeException e) {
+                dropPending(count);
+                throw e;
+            }
+        }
     }
 
     /* (non-Javadoc)
@@ -57,7 +93,84 @@ class WebsocketTransport extends WebSocketClient implements IOTransport {
      */
     @Override
     public void sendBulk(String[] texts) throws IOException {
-        throw new RuntimeException("Cannot send Bulk!");
+        synchronized (pending) {
+            int count = pending.size();
+            try {
+                for (String text : texts) {
+                    encode(text);
+                }
+            } catch (RuntimeException e) {
+                // the caller keeps the messages and sends them again
+                dropPending(count);
+                throw e;
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see io.socket.IOTransport#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        ByteBuffer batch;
+        synchronized (pending) {
+            if (pending.isEmpty())
+                return;
+            if (pending.size() == 1) {
+                batch = pending.get(0);
+            } else {
+                batch = ByteBuffer.allocate(pendingBytes);
+                for (ByteBuffer frame : pending) {
+                    batch.put(frame);
+                }
+                batch.flip();
+            }
+            pending.clear();
+            pendingBytes = 0;
+        }
+
+        WebSocket conn = getConnection();
+        if (!(conn instanceof WebSocketImpl) || !conn.isOpen())
+            throw new IOException("Websocket is not open");
+        try {
+            ((WebSocketImpl) conn).outQueue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing", e);
+        }
+        onWriteDemand(conn);
+    }
+
+    /**
+     * Encodes a message into masked client frames and adds them to
+     * {@link #pending}.
+     *
+     * @param text
+     *            the message
+     */
+    private void encode(String text) {
+        WebSocket conn = getConnection();
+        if (conn == null || !conn.isOpen())
+            throw new NotYetConnectedException();
+        Draft draft = conn.getDraft();
+        for (Framedata frame : draft.createFrames(text, true)) {
+            ByteBuffer buffer = draft.createBinaryFrame(frame);
+            pending.add(buffer);
+            pendingBytes += buffer.remaining();
+        }
+    }
+
+    /**
+     * Drops the frames added to {@link #pending} after the first
+     * <code>count</code> ones.
+     *
+     * @param count
+     *            the number of frames to keep
+     */
+    private void dropPending(int count) {
+        while (pending.size() > count) {
+            pendingBytes -= pending.remove(pending.size() - 1).remaining();
+        }
     }
 
     /* (non-Javadoc)
@@ -8,29 +8,39 @@
  */
 package io.socket;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 
 /**
- * The Class XhrTransport.
+ * The Class XhrTransport. The long-poll GET and the sending POSTs run on two
+ * threads with their own connections, so a send never tears down a blocked
+ * poll. Both read their responses to the end, so the underlying sockets are
+ * kept alive and reused by {@link HttpURLConnection}.
  */
 class XhrTransport implements IOTransport {
 
 	/** The String to identify this Transport. */
 	public static final String TRANSPORT_NAME = "xhr-polling";
 
+	/** The charset of the payloads. */
+	private static final String CHARSET = "UTF-8";
+
 	/** The connection. */
 	private IOConnection connection;
 
@@ -38,28 +48,43 @@ class XhrTransport implements IOTransport {
 	private URL url;
 
 	/** The queue holding elements to send. */
-	ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<String>();
+	LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<String>();
 
-	/** background thread for managing the server connection. */
+	/** background thread for receiving from the server. */
 	PollThread pollThread = null;
 
+	/** background thread for sending to the server. */
+	SendThread sendThread = null;
+
 	/** Indicates whether the {@link io.socket.IOConnection} wants us to be connected. */
 	private boolean connect;
 
-	/** Indicates whether {@link io.socket.XhrTransport.PollThread} is blocked. */
-	private boolean blocked;
+	/** true once an error was reported, it's reported only once. */
+	private final AtomicBoolean failed = new AtomicBoolean();
 
-	HttpURLConnection urlConnection;
+	/**
+	 * The socket factory of the custom {@link SSLContext}, if any. It's shared
+	 * by all requests, pooled connections are only reused for the same
+	 * factory.
+	 */
+	private final SSLSocketFactory sslSocketFactory;
+
+	/** The connection of the running poll, null between polls. */
+	private volatile HttpURLConnection pollConnection;
 
 	/**
-	 * The Class ReceiverThread.
+	 * The Class PollThread.
 	 */
 	private class PollThread extends Thread {
 
-		private static final String CHARSET = "UTF-8";
+		/** The buffer polled payloads are read into. */
+		private final char[] chunk = new char[4096];
+
+		/** {@link #chunk} as a CharSequence. */
+		private final CharBuffer chunkSequence = CharBuffer.wrap(chunk);
 
 		/**
-		 * Instantiates a new receiver thread.
+		 * Instantiates a new poll thread.
 		 */
 		public PollThread() {
 			super(TRANSPORT_NAME);
@@ -75,60 +100,121 @@ class XhrTransport implements IOTransport {
 			connection.transportConnected();
 			while (isConnect()) {
 				try {
-					String line;
-					URL url = new URL(XhrTransport.this.url.toString() + "?t="
-							+ System.currentTimeMillis());
-					urlConnection = (HttpURLConnection) url.openConnection();
-					SSLContext context = IOConnection.getSslContext();
-					if(urlConnection instanceof HttpsURLConnection && context != null) {
-						((HttpsURLConnection)urlConnection).setSSLSocketFactory(context.getSocketFactory());
+					HttpURLConnection urlConnection = openConnection();
+					pollConnection = urlConnection;
+					if (!isConnect()) {
+						urlConnection.disconnect();
+						break;
 					}
-					if (!queue.isEmpty()) {
-						urlConnection.setDoOutput(true);
-						OutputStream output = urlConnection.getOutputStream();
-						if (queue.size() == 1) {
-							line = queue.poll();
-							output.write(line.getBytes(CHARSET));
-						} else {
-							Iterator<String> iter = queue.iterator();
-							while (iter.hasNext()) {
-								String junk = iter.next();
-								line = IOConnection.FRAME_DELIMITER + junk.length()
-										+ IOConnection.FRAME_DELIMITER + junk;
-								output.write(line.getBytes(CHARSET));
-								iter.remove();
-							}
+					InputStream plainInput = urlConnection.getInputStream();
+					Reader input = new InputStreamReader(plainInput, CHARSET);
+					IOConnection connection = XhrTransport.this.connection;
+					boolean complete = false;
+					try {
+						int count;
+						while ((count = input.read(chunk)) > 0) {
+							if (connection != null)
+								connection.transportData(chunkSequence, 0, count);
 						}
-						output.close();
-						InputStream input = urlConnection.getInputStream();
-						byte[] buffer = new byte[1024];
-						while(input.read(buffer) > 0) {
+						complete = true;
+					} finally {
+						if (connection != null) {
+							if (complete)
+								connection.transportDataEnd();
+							else
+								connection.transportDataAbort();
 						}
 						input.close();
-					} else {
-						setBlocked(true);
-						InputStream plainInput = urlConnection.getInputStream();
-						BufferedReader input = new BufferedReader(
-								new InputStreamReader(plainInput, CHARSET));
-						while ((line = input.readLine()) != null) {
-							if (connection != null)
-								connection.transportData(line);
-						}
-						setBlocked(false);
+						pollConnection = null;
 					}
-
 				} catch (IOException e) {
-					if (connection != null && interrupted() == false) {
-						connection.transportError(e);
+					if (isConnect()) {
+						fail(e);
 						return;
 					}
 				}
+			}
+			IOConnection connection = XhrTransport.this.connection;
+			if (connection != null)
+				connection.transportDisconnected();
+		}
+	}
+
+	/**
+	 * The Class SendThread. Sends everything that's queued in one POST,
+	 * framed if there's more than one message.
+	 */
+	private class SendThread extends Thread {
+
+		/** The messages of the running POST. */
+		private final List<String> batch = new ArrayList<String>();
+
+		/** The payload of the running POST. */
+		private final StringBuilder payload = new StringBuilder();
+
+		/**
+		 * Instantiates a new send thread.
+		 */
+		public SendThread() {
+			super(TRANSPORT_NAME + "-send");
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run() {
+			while (isConnect()) {
 				try {
-					sleep(100);
+					batch.add(queue.take());
+					queue.drainTo(batch);
+					post();
 				} catch (InterruptedException e) {
+					// disconnect() interrupts us
+				} catch (IOException e) {
+					if (isConnect())
+						fail(e);
+					return;
+				} finally {
+					batch.clear();
+					payload.setLength(0);
 				}
 			}
-			connection.transportDisconnected();
+		}
+
+		/**
+		 * Posts {@link #batch}.
+		 * 
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		private void post() throws IOException {
+			if (batch.size() == 1) {
+				payload.append(batch.get(0));
+			} else {
+				for (String text : batch) {
+					payload.append(IOConnection.FRAME_DELIMITER)
+							.append(text.length())
+							.append(IOConnection.FRAME_DELIMITER)
+							.append(text);
+				}
+			}
+			byte[] data = payload.toString().getBytes(CHARSET);
+			HttpURLConnection urlConnection = openConnection();
+			urlConnection.setDoOutput(true);
+			urlConnection.setFixedLengthStreamingMode(data.length);
+			urlConnection.setRequestProperty("Content-Type",
+					"text/plain; charset=" + CHARSET);
+			OutputStream output = urlConnection.getOutputStream();
+			output.write(data);
+			output.close();
+			InputStream input = urlConnection.getInputStream();
+			byte[] buffer = new byte[256];
+			while (input.read(buffer) > 0) {
+			}
+			input.close();
 		}
 	}
 
@@ -165,6 +251,9 @@ class XhrTransport implements IOTransport {
 	public XhrTransport(URL url, IOConnection connection) {
 		this.connection = connection;
 		this.url = url;
+		SSLContext context = IOConnection.getSslContext();
+		this.sslSocketFactory = context != null ? context.getSocketFactory()
+				: null;
 	}
 
 	/*
@@ -175,6 +264,8 @@ class XhrTransport implements IOTransport {
 	@Override
 	public void connect() {
 		this.setConnect(true);
+		sendThread = new SendThread();
+		sendThread.start();
 		pollThread = new PollThread();
 		pollThread.start();
 	}
@@ -187,7 +278,11 @@ class XhrTransport implements IOTransport {
 	@Override
 	public void disconnect() {
 		this.setConnect(false);
+		sendThread.interrupt();
 		pollThread.interrupt();
+		HttpURLConnection urlConnection = pollConnection;
+		if (urlConnection != null)
+			urlConnection.disconnect();
 	}
 
 	/*
@@ -218,10 +313,16 @@ class XhrTransport implements IOTransport {
 	@Override
 	public void sendBulk(String[] texts) throws IOException {
 		queue.addAll(Arrays.asList(texts));
-		if (isBlocked()) {
-			pollThread.interrupt();
-			urlConnection.disconnect();
-		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see io.socket.IOTransport#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		// SendThread posts whatever is queued right away
 	}
 
 	/*
@@ -254,22 +355,36 @@ class XhrTransport implements IOTransport {
 	}
 
 	/**
-	 * Checks if is blocked.
+	 * Opens a connection to the server. Requests go to the same url every
+	 * time, caching is turned off instead of making each url unique.
 	 * 
-	 * @return true, if is blocked
+	 * @return the connection
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
 	 */
-	private synchronized boolean isBlocked() {
-		return blocked;
+	private HttpURLConnection openConnection() throws IOException {
+		HttpURLConnection urlConnection = (HttpURLConnection) url
+				.openConnection();
+		if (urlConnection instanceof HttpsURLConnection
+				&& sslSocketFactory != null) {
+			((HttpsURLConnection) urlConnection)
+					.setSSLSocketFactory(sslSocketFactory);
+		}
+		urlConnection.setUseCaches(false);
+		urlConnection.setRequestProperty("Cache-Control", "no-cache");
+		return urlConnection;
 	}
 
 	/**
-	 * Sets the blocked.
+	 * Reports an error to the {@link IOConnection}, once for both threads.
 	 * 
-	 * @param blocked
-	 *            the new blocked
+	 * @param e
+	 *            the error
 	 */
-	private synchronized void setBlocked(boolean blocked) {
-		this.blocked = blocked;
+	private void fail(IOException e) {
+		IOConnection connection = this.connection;
+		if (connection != null && failed.compareAndSet(false, true))
+			connection.transportError(e);
 	}
 
 	@Override
@@ -34,6 +34,12 @@
 #define ACTION_TILT                 6
 #define ACTION_CALIBRATE_TILT       7
 #define ACTION_TILT_OFFSET          8
+#define ACTION_SUBSCRIBE_TILT       9
+#define ACTION_UNSUBSCRIBE_TILT    10
+#define ACTION_TILT_STREAM         11
+
+// untracked get requests and responses sent on our own
+#define NO_SEQUENCE                 0
 
 #define TUNE_PITCH                  1
 #define TUNE_ROLL                   2
@@ -113,6 +119,8 @@
 #define TV 0.99     // z-velocity filter
 
 #define LOG_INTERVALS        2000
+
+#define DEFAULT_TILT_STREAM_RATE   50     // samples per second
 //////////////////////////////////////////
 ////// Members
 //////////////////////////////////////////
@@ -174,6 +182,10 @@ unsigned long loop_start;
 unsigned long _motorsStandbyTimestamp;
 unsigned long _logTimestamp;
 
+// members-tilt-stream, 0 while not streaming
+unsigned long _tiltStreamInterval;
+unsigned long _tiltStreamTimestamp;
+
 union btf {
     byte b[4];
     float f;
@@ -203,6 +215,7 @@ void onCreate() {
   setMotorsPower(THROTTLE_MIN);
   
   _motorsStandbyTimestamp = 0;
+  _tiltStreamInterval = 0;
   
   _pitch.SetTunings(_storage.pitchKp, _storage.pitchKi, _storage.pitchKd);
   _pitch.SetOutputLimits(PITCH_MIN, PITCH_MAX);
@@ -257,10 +270,13 @@ void onMessageReceived(byte command, byte action, byte dataLength, byte* data) {
        onCommandSettings(action, dataLength, data);
        break;
        
-     case COMMAND_GET:
+     case COMMAND_GET: {
        _log->d("Command Get");
-       onCommandGet(action, dataLength, data);
+       // get requests start with a sequence id, the reply echoes it
+       byte sequence = (dataLength > 0) ? data[0] : NO_SEQUENCE;
+       onCommandGet(action, sequence, (dataLength > 0) ? dataLength - 1 : 0, data + 1);
        break;
+     }
   }
 }
 
@@ -397,12 +413,13 @@ void onCommandSettings(byte action, byte dataLength, byte* data) {
     
     case ACTION_CALIBRATE_TILT: {
       onCalibrateTilt();
-      byte msg[14];
+      byte msg[15];
       btf conv;
        
       int i = 0;
       msg[i++] = COMMAND_RESPONSE;
       msg[i++] = ACTION_TILT_OFFSET;
+      msg[i++] = NO_SEQUENCE;
  
       float pitchOffset = _storage.pitchOffset;
       float rollOffset = _storage.rollOffset;
@@ -440,18 +457,20 @@ void onCommandSettings(byte action, byte dataLength, byte* data) {
  * Handle get requests
  *
  * @param action The action sent by the Android device
+ * @param sequence The sequence id of the request, to be echoed in the reply
  * @param dataLength The length of "data"
  * @param data Pointer to the extra data sent by the device
  */
-void onCommandGet(byte action, byte dataLength, byte* data) {
+void onCommandGet(byte action, byte sequence, byte dataLength, byte* data) {
   switch(action) {
     case ACTION_TUNE: {
       _log->d("Action Tune");
-      byte msg[38];
+      byte msg[39];
       btf conv;
       int i = 0;
       msg[i++] = COMMAND_RESPONSE;
       msg[i++] = ACTION_TUNE;
+      msg[i++] = sequence;
       
       // pitch
       conv.f = (float) _pitch.GetKp();            
@@ -516,43 +535,81 @@ void onCommandGet(byte action, byte dataLength, byte* data) {
     
     case ACTION_TILT: {
       _log->d("Action Tilt");
-      byte msg[14];      
-      btf conv;
+      sendTilt(ACTION_TILT, sequence, (float *)getAngles());
+      break;
+    }
+    
+    case ACTION_SUBSCRIBE_TILT: {
+      byte rate = (dataLength > 0 && data[0] > 0) ? data[0] : DEFAULT_TILT_STREAM_RATE;
+      _log->d("Action Subscribe Tilt: ", rate);
+      _tiltStreamInterval = 1000 / rate;
+      _tiltStreamTimestamp = millis();
+      break;
+    }
+    
+    case ACTION_UNSUBSCRIBE_TILT: {
+      _log->d("Action Unsubscribe Tilt");
+      _tiltStreamInterval = 0;
+      break;
+    }
+  }
+}
+
+/**
+ * Send the given angles to the Android device as a tilt response
+ *
+ * @param action ACTION_TILT to answer a get request, ACTION_TILT_STREAM for a streamed sample
+ * @param sequence The sequence id of the get request, NO_SEQUENCE for a streamed sample
+ * @param angles 0:Pitch, 1:Roll, 2:Yaw
+ */
+void sendTilt(byte action, byte sequence, float* angles) {
+  byte msg[15];      
+  btf conv;
  
-      int i = 0;
-      msg[i++] = COMMAND_RESPONSE;
-      msg[i++] = ACTION_TILT;
+  int i = 0;
+  msg[i++] = COMMAND_RESPONSE;
+  msg[i++] = action;
+  msg[i++] = sequence;
+
+  // pitch
+  conv.f = angles[0];            
+  msg[i++] = conv.b[0];
+  msg[i++] = conv.b[1];
+  msg[i++] = conv.b[2];
+  msg[i++] = conv.b[3];  
+
+  // roll
+  conv.f = angles[1];            
+  msg[i++] = conv.b[0];
+  msg[i++] = conv.b[1];
+  msg[i++] = conv.b[2];
+  msg[i++] = conv.b[3];
  
-      float* angles = (float *)getAngles();
-
-      // pitch
-      conv.f = angles[0];            
-      msg[i++] = conv.b[0];
-      msg[i++] = conv.b[1];
-      msg[i++] = conv.b[2];
-      msg[i++] = conv.b[3];  
+  // yaw
+  conv.f = angles[2];            
+  msg[i++] = conv.b[0];
+  msg[i++] = conv.b[1];
+  msg[i++] = conv.b[2];
+  msg[i++] = conv.b[3];     
+ 
+  sendToDevice(msg, i);
+}
 
-      // roll
-      conv.f = angles[1];            
-      msg[i++] = conv.b[0];
-      msg[i++] = conv.b[1];
-      msg[i++] = conv.b[2];
-      msg[i++] = conv.b[3];
-     
-      // yaw
-      conv.f = angles[2];            
-      msg[i++] = conv.b[0];
-      msg[i++] = conv.b[1];
-      msg[i++] = conv.b[2];
-      msg[i++] = conv.b[3];     
-     
-      _log->d("Pitch: ", angles[0]);
-      _log->d("Roll: ", angles[1]);
-      _log->d("Yaw: ", angles[2]);
-      
-      sendToDevice(msg, i);
-      break;
-    }
+/**
+ * Push tilt values to the Android device at the subscribed rate
+ */
+void onTiltStream() {
+  if (_tiltStreamInterval == 0 || millis() - _tiltStreamTimestamp < _tiltStreamInterval) {
+    return;
+  }
+  
+  _tiltStreamTimestamp = millis();
+  if (millis() < _motorsStandbyTimestamp || _control.standby) {
+    // the main loop isn't updating the angles while on standby
+    sendTilt(ACTION_TILT_STREAM, NO_SEQUENCE, (float *)getAngles());
+  } else {
+    // reuse the angles of the main loop, reading them again would throw off its filters
+    sendTilt(ACTION_TILT_STREAM, NO_SEQUENCE, (float *)_angles);
   }
 }
 //////////////////////////////////////////
@@ -872,11 +929,16 @@ void loop() {
         sendAck();
       }
     }
+    
+    onTiltStream();
   } else if (_lastTimeReconnectedToUsb + TIME_STEP_BETWEEN_USB_RECONNECTIONS < millis()) {
     _log->d("USB is not connected. Trying to reconnect...");
     reconnectUsb();
     _lastTimeReconnectedToUsb = millis();
 
+    // subscriptions don't outlive the connection
+    _tiltStreamInterval = 0;
+
     // make sure nothing bad happens, shut down the motors    
     digitalWrite(LED_1_PIN, HIGH);
     setMotorsPower(THROTTLE_MIN);
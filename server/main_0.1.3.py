@@ -139,6 +139,11 @@ class EventHandler(tornadio2.SocketConnection):
 	def get(self, **kwargs):
 		self.emit_all("get", **kwargs)
 
+	@tornadio2.event
+	def ping(self, **kwargs):
+		# nothing to do, the client times the ack tornadio2 sends back
+		pass
+
 class WebApp(object):
 	def __init__(self):
 		app_router = tornadio2.TornadioRouter(EventHandler)
@@ -7,6 +7,20 @@ define(['log', 'config'], function (log, config) {
     ////////////////////////////////////
     var TAG = "common";
 
+    /**
+     * Encode the sticks as [throttle][pitch][roll][yaw], one signed byte each, in base64
+     *
+     * @param {Object} data
+     * @return {String}
+     */
+    function encodeSticks(data) {
+        return btoa(String.fromCharCode(
+            data.throttle & 0xFF,
+            data.pitch & 0xFF,
+            data.roll & 0xFF,
+            data.yaw & 0xFF));
+    }
+
     ////////////////////////////////////
     ///////// Public
     ////////////////////////////////////
@@ -29,6 +43,10 @@ define(['log', 'config'], function (log, config) {
 
         ACTION_TILT_OFFSET:"tilt_offset",
 
+        ACTION_SUBSCRIBE_TILT:"subscribe_tilt",
+
+        ACTION_UNSUBSCRIBE_TILT:"unsubscribe_tilt",
+
         TUNE_PITCH:1,
 
         TUNE_ROLL:2,
@@ -55,6 +73,10 @@ define(['log', 'config'], function (log, config) {
          * @param {Object} data
          */
         sendToDevice:function (socket, event, type, data) {
+            if (config.BINARY_CONTROL && event == this.COMMAND_CONTROL && type == this.ACTION_STICKS) {
+                data = encodeSticks(data);
+            }
+
             log.d(TAG, "sendToDevice: " + event + ":: " + type + ":: data: " + JSON.stringify(data));
             socket.emit(event,
                 {
@@ -6,6 +6,9 @@ define(function() {
     ///////// Public
     ////////////////////////////////////
     return {
-        DEBUG: false
+        DEBUG: false,
+
+        // send sticks as base64 encoded bytes instead of json, requires a device that understands it
+        BINARY_CONTROL: false
     };
 });
@@ -8,12 +8,13 @@ define(['socket.io', 'common', "jquery", "prototype"], function (io, common, $)
     ///////// Constants
     ////////////////////////////////////
     var TAG = "Screen-Settings";
+    var TILT_STREAM_RATE = 50; // samples per second
     ////////////////////////////////////
     ///////// Members
     ////////////////////////////////////
     var mLog = common.log;
     var mSocket;
-    var autoRequestTilt = false;
+    var mStreamingTilt = false;
 
     ////////////////////////////////////
     ///////// Constructor
@@ -47,14 +48,17 @@ define(['socket.io', 'common', "jquery", "prototype"], function (io, common, $)
         });
 
         $('#tilt').click(function() {
-            if (autoRequestTilt) {
+            if (mStreamingTilt) {
                 $(this).val("get tilt");
-                autoRequestTilt = false;
+                mStreamingTilt = false;
+                common.sendToDevice(mSocket, common.COMMAND_GET, common.ACTION_UNSUBSCRIBE_TILT, null);
             } else {
+                // the device keeps pushing tilt values until we unsubscribe
                 $(this).val("stop");
-                autoRequestTilt = true;
-                $(this).attr("disabled", "disabled");
-                onGetTilt();
+                mStreamingTilt = true;
+                common.sendToDevice(mSocket, common.COMMAND_GET, common.ACTION_SUBSCRIBE_TILT, {
+                    rate: TILT_STREAM_RATE
+                });
             }
         });
     })();
@@ -92,10 +96,6 @@ define(['socket.io', 'common', "jquery", "prototype"], function (io, common, $)
         common.sendToDevice(mSocket, common.COMMAND_SETTINGS, common.ACTION_CALIBRATE_TILT, null);
     }
 
-    function onGetTilt() {
-        common.sendToDevice(mSocket, common.COMMAND_GET, common.ACTION_TILT, null);
-    }
-
     /**
      * Set values in text fields
      *
@@ -111,14 +111,13 @@ define(['socket.io', 'common', "jquery", "prototype"], function (io, common, $)
     /**
      * Append another tilt value
      *
-     * @param data
+     * @param data A single tilt value or a batch of them
      */
     function appendTilt(data) {
         var lbl = $('#tilt-lbl');
-        lbl.html("<br/>pitch: " + data.pitch + ", roll: " + data.roll + ", yaw: " + data.yaw + lbl.html());
-        $('#tilt').removeAttr("disabled");
-        if (autoRequestTilt) {
-            onGetTilt();
+        var samples = $.isArray(data) ? data : [data];
+        for (var i = 0, max = samples.length; i < max; i++) {
+            lbl.html("<br/>pitch: " + samples[i].pitch + ", roll: " + samples[i].roll + ", yaw: " + samples[i].yaw + lbl.html());
         }
     }
 